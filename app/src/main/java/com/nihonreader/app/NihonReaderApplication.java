@@ -0,0 +1,19 @@
+package com.nihonreader.app;
+
+import android.app.Application;
+
+import com.nihonreader.app.utils.TokenizerService;
+
+/**
+ * Application class, used to start expensive shared resources early
+ */
+public class NihonReaderApplication extends Application {
+    
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        
+        // Load the Kuromoji dictionary in the background so the first story opens quickly
+        TokenizerService.getInstance().warmUp();
+    }
+}
@@ -28,7 +28,9 @@ import com.nihonreader.app.adapters.TimestampAdapter;
 import com.nihonreader.app.models.AudioSegment;
 import com.nihonreader.app.models.StoryContent;
 import com.nihonreader.app.utils.AudioUtils;
+import com.nihonreader.app.utils.PeakIndex;
 import com.nihonreader.app.viewmodels.EditTimestampsViewModel;
+import com.nihonreader.app.views.WaveformView;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -41,11 +43,15 @@ public class EditTimestampsActivity extends AppCompatActivity implements Timesta
     
     public static final String EXTRA_STORY_ID = "com.nihonreader.app.EXTRA_STORY_ID";
     
+    // How far a captured time may move to land in a pause
+    private static final long SNAP_WINDOW_MS = 250;
+    
     private EditTimestampsViewModel viewModel;
     private RecyclerView recyclerView;
     private TimestampAdapter adapter;
     private ProgressBar progressBar;
     private SeekBar seekBar;
+    private WaveformView waveformView;
     private TextView textViewCurrentTime;
     private TextView textViewTotalTime;
     private ImageButton buttonPlayPause;
@@ -58,6 +64,7 @@ public class EditTimestampsActivity extends AppCompatActivity implements Timesta
     private Runnable updateSeekBarRunnable;
     
     private StoryContent storyContent;
+    private PeakIndex peakIndex;
     private List<AudioSegment> originalSegments = new ArrayList<>();
     private boolean isModified = false;
     
@@ -80,6 +87,7 @@ public class EditTimestampsActivity extends AppCompatActivity implements Timesta
         recyclerView = findViewById(R.id.recycler_view_timestamps);
         progressBar = findViewById(R.id.progress_bar);
         seekBar = findViewById(R.id.seek_bar);
+        waveformView = findViewById(R.id.waveform_view);
         textViewCurrentTime = findViewById(R.id.text_view_current_time);
         textViewTotalTime = findViewById(R.id.text_view_total_time);
         buttonPlayPause = findViewById(R.id.button_play_pause);
@@ -133,6 +141,7 @@ public class EditTimestampsActivity extends AppCompatActivity implements Timesta
                 
                 // Initialize media player
                 initializeMediaPlayer(content.getAudioUri());
+                viewModel.loadPeaks(content.getAudioUri());
                 
                 // Initialize adapter with the copy of segments
                 if (adapter == null) {
@@ -140,14 +149,29 @@ public class EditTimestampsActivity extends AppCompatActivity implements Timesta
                     recyclerView.setAdapter(adapter);
                 }
                 adapter.setSegments(segmentsCopy);
+                waveformView.setSegments(segmentsCopy);
             }
         });
         
+        // Show the waveform once its peaks are mapped
+        viewModel.getPeakIndex().observe(this, peaks -> {
+            peakIndex = peaks;
+            waveformView.setPeaks(peaks);
+        });
+        
         // Setup click listeners
         buttonPlayPause.setOnClickListener(v -> togglePlayback());
         buttonSkipBackward.setOnClickListener(v -> skipBackward());
         buttonSkipForward.setOnClickListener(v -> skipForward());
         
+        // Tapping or dragging the waveform seeks
+        waveformView.setOnSeekListener(positionMs -> {
+            if (mediaPlayer != null) {
+                mediaPlayer.seekTo((int) positionMs);
+                updateSeekBarProgress();
+            }
+        });
+        
         // Setup seek bar
         seekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
             @Override
@@ -247,6 +271,10 @@ public class EditTimestampsActivity extends AppCompatActivity implements Timesta
      */
     private void completeTimeCapture(long startTime, long endTime) {
         if (captureSegmentPosition >= 0 && adapter != null) {
+            // Move the captured times into the nearest pauses
+            startTime = snapToSilence(startTime);
+            endTime = Math.max(startTime, snapToSilence(endTime));
+            
             // Get the segments directly from the adapter
             List<AudioSegment> segments = adapter.getSegments();
             
@@ -289,6 +317,8 @@ public class EditTimestampsActivity extends AppCompatActivity implements Timesta
                 adapter.notifyItemChanged(captureSegmentPosition);
             }
             
+            waveformView.setSegments(adapter.getSegments());
+            
             // Reset capture state
             isCapturingTime = false;
             captureSegmentPosition = -1;
@@ -301,6 +331,10 @@ public class EditTimestampsActivity extends AppCompatActivity implements Timesta
         }
     }
     
+    private long snapToSilence(long timeMs) {
+        return peakIndex != null ? peakIndex.snapToSilence(timeMs, SNAP_WINDOW_MS) : timeMs;
+    }
+    
     private void skipBackward() {
         if (mediaPlayer == null) {
             return;
@@ -328,6 +362,7 @@ public class EditTimestampsActivity extends AppCompatActivity implements Timesta
         
         int currentPosition = mediaPlayer.getCurrentPosition();
         seekBar.setProgress(currentPosition);
+        waveformView.setPosition(currentPosition);
         textViewCurrentTime.setText(AudioUtils.formatTime(currentPosition));
         
         // Update listeners
@@ -407,6 +442,7 @@ public class EditTimestampsActivity extends AppCompatActivity implements Timesta
     @Override
     public void onStartTimeSet(int position, long timestamp) {
         isModified = true;
+        waveformView.setSegments(adapter.getSegments());
         // No need to update adapter since it's already updated through binding
     }
     
@@ -492,6 +528,7 @@ public class EditTimestampsActivity extends AppCompatActivity implements Timesta
         if (adapter != null && position > 0 && position < adapter.getItemCount()) {
             // Merge the segment at 'position' with the one above it
             adapter.mergeWithPreviousSegment(position);
+            waveformView.setSegments(adapter.getSegments());
             
             // Mark as modified
             isModified = true;
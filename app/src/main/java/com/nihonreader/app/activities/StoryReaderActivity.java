@@ -3,8 +3,6 @@ package com.nihonreader.app.activities;
 import android.media.AudioAttributes;
 import android.media.MediaPlayer;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.ImageButton;
@@ -27,10 +25,12 @@ import com.nihonreader.app.models.Story;
 import com.nihonreader.app.models.StoryContent;
 import com.nihonreader.app.models.UserProgress;
 import com.nihonreader.app.utils.AudioUtils;
+import com.nihonreader.app.utils.PlaybackClock;
+import com.nihonreader.app.utils.SegmentTimeline;
+import com.nihonreader.app.utils.WordTimings;
 import com.nihonreader.app.viewmodels.StoryReaderViewModel;
 
 import java.io.IOException;
-import java.util.List;
 
 /**
  * Activity for reading stories with synchronized audio
@@ -39,6 +39,9 @@ public class StoryReaderActivity extends AppCompatActivity {
     
     public static final String EXTRA_STORY_ID = "com.nihonreader.app.EXTRA_STORY_ID";
     
+    // How soon to look again for word times when the playing segment is still loading
+    private static final long SEGMENT_LOAD_WAIT_MS = 100;
+    
     private StoryReaderViewModel viewModel;
     private RecyclerView recyclerView;
     private TextSegmentAdapter adapter;
@@ -51,13 +54,20 @@ public class StoryReaderActivity extends AppCompatActivity {
     private ImageButton buttonSkipForward;
     
     private MediaPlayer mediaPlayer;
-    private Handler handler;
-    private Runnable updateSeekBarRunnable;
+    private PlaybackClock playbackClock;
+    private int durationMs;
+    
+    // What is on screen, so each playback update only touches what changed
+    private int shownSecond = -1;
+    private long shownSeekStep = -1;
+    private int shownSegmentIndex = -1;
+    private int playingSegmentIndex = -1;
+    private AudioSegment playingSegment;
     
     private Story story;
     private StoryContent storyContent;
     private UserProgress userProgress;
-    private List<AudioSegment> segments;
+    private int segmentCount;
     
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -108,14 +118,19 @@ public class StoryReaderActivity extends AppCompatActivity {
         viewModel.getStoryContent().observe(this, content -> {
             if (content != null) {
                 storyContent = content;
-                segments = content.getSegments();
-                adapter.setSegments(segments);
                 
                 // Initialize media player
                 initializeMediaPlayer(content.getAudioUri());
             }
         });
         
+        // Segments are loaded a page at a time around what is shown and played
+        adapter.setSegmentPager(viewModel.getSegmentPager());
+        viewModel.getSegmentTimeline().observe(this, timeline -> {
+            segmentCount = timeline.size();
+            adapter.setSegmentCount(segmentCount);
+        });
+        
         // Observe user progress
         viewModel.getUserProgress().observe(this, progress -> {
             if (progress != null) {
@@ -130,7 +145,7 @@ public class StoryReaderActivity extends AppCompatActivity {
         
         // Observe current segment index
         viewModel.getCurrentSegmentIndex().observe(this, index -> {
-            if (index >= 0 && segments != null && index < segments.size()) {
+            if (index >= 0 && index < segmentCount) {
                 adapter.setSelectedPosition(index);
                 recyclerView.smoothScrollToPosition(index);
             }
@@ -177,26 +192,20 @@ public class StoryReaderActivity extends AppCompatActivity {
             }
         });
         
-        // Initialize handler for seeking
-        handler = new Handler(Looper.getMainLooper());
-        updateSeekBarRunnable = new Runnable() {
-            @Override
-            public void run() {
-                updateSeekBarProgress();
-                handler.postDelayed(this, 100);
-            }
-        };
-        
         // Show progress while loading
         progressBar.setVisibility(View.VISIBLE);
     }
     
     private void initializeMediaPlayer(String audioUri) {
+        if (playbackClock != null) {
+            playbackClock.stop();
+        }
         if (mediaPlayer != null) {
             mediaPlayer.release();
         }
         
         mediaPlayer = new MediaPlayer();
+        playbackClock = new PlaybackClock(mediaPlayer, this::onPlaybackPosition);
         try {
             mediaPlayer.setAudioAttributes(
                     new AudioAttributes.Builder()
@@ -208,8 +217,9 @@ public class StoryReaderActivity extends AppCompatActivity {
             mediaPlayer.prepare();
             
             // Set up seek bar
-            seekBar.setMax(mediaPlayer.getDuration());
-            textViewTotalTime.setText(AudioUtils.formatTime(mediaPlayer.getDuration()));
+            durationMs = mediaPlayer.getDuration();
+            seekBar.setMax(durationMs);
+            textViewTotalTime.setText(AudioUtils.formatTime(durationMs));
             
             // Set up completion listener
             mediaPlayer.setOnCompletionListener(mp -> {
@@ -235,6 +245,7 @@ public class StoryReaderActivity extends AppCompatActivity {
         if (mediaPlayer.isPlaying()) {
             mediaPlayer.pause();
             viewModel.setIsPlaying(false);
+            viewModel.flushAudioPosition();
         } else {
             mediaPlayer.start();
             viewModel.setIsPlaying(true);
@@ -248,6 +259,7 @@ public class StoryReaderActivity extends AppCompatActivity {
         
         int newPosition = Math.max(0, mediaPlayer.getCurrentPosition() - 5000);
         mediaPlayer.seekTo(newPosition);
+        playbackClock.sync();
         updateSeekBarProgress();
     }
     
@@ -258,6 +270,7 @@ public class StoryReaderActivity extends AppCompatActivity {
         
         int newPosition = Math.min(mediaPlayer.getDuration(), mediaPlayer.getCurrentPosition() + 5000);
         mediaPlayer.seekTo(newPosition);
+        playbackClock.sync();
         updateSeekBarProgress();
     }
     
@@ -266,15 +279,40 @@ public class StoryReaderActivity extends AppCompatActivity {
             return;
         }
         
-        int currentPosition = mediaPlayer.getCurrentPosition();
-        seekBar.setProgress(currentPosition);
-        textViewCurrentTime.setText(AudioUtils.formatTime(currentPosition));
+        showPosition(mediaPlayer.getCurrentPosition());
+    }
+    
+    /**
+     * Called by the playback clock on the frames it wakes for
+     * @return The position of the next change to the screen
+     */
+    private long onPlaybackPosition(long position) {
+        showPosition(position);
+        return nextPositionChange(position);
+    }
+    
+    /**
+     * Bring the seek bar, time and highlights up to a position, only updating what changed
+     */
+    private void showPosition(long currentPosition) {
+        long seekStep = currentPosition / getSeekBarStepMs();
+        if (seekStep != shownSeekStep) {
+            shownSeekStep = seekStep;
+            seekBar.setProgress((int) currentPosition);
+        }
+        int second = (int) (currentPosition / 1000);
+        if (second != shownSecond) {
+            shownSecond = second;
+            textViewCurrentTime.setText(AudioUtils.formatTime(currentPosition));
+        }
         
         // Update current segment
-        int segmentIndex = viewModel.findCurrentSegment(storyContent, currentPosition);
-        if (segmentIndex >= 0) {
+        int segmentIndex = viewModel.findCurrentSegment(currentPosition);
+        if (segmentIndex >= 0 && segmentIndex != shownSegmentIndex) {
+            shownSegmentIndex = segmentIndex;
             viewModel.setCurrentSegmentIndex(segmentIndex);
         }
+        updatePlayingWord(segmentIndex, currentPosition);
         
         // Save progress
         if (userProgress != null) {
@@ -282,12 +320,70 @@ public class StoryReaderActivity extends AppCompatActivity {
         }
     }
     
+    /**
+     * The next position at which the seek bar, time or highlights change
+     */
+    private long nextPositionChange(long position) {
+        long seekStepMs = getSeekBarStepMs();
+        long next = Math.min((position / 1000 + 1) * 1000, (position / seekStepMs + 1) * seekStepMs);
+        
+        SegmentTimeline timeline = viewModel.getSegmentTimeline().getValue();
+        if (timeline != null) {
+            next = Math.min(next, timeline.nextBoundary(position));
+        }
+        if (playingSegment != null && playingSegment.getWordTimings() != null) {
+            long wordBoundary = WordTimings.nextBoundary(playingSegment.getWordTimings(),
+                    position - playingSegment.getStart());
+            if (wordBoundary != Long.MAX_VALUE) {
+                next = Math.min(next, playingSegment.getStart() + wordBoundary);
+            }
+        } else if (playingSegment == null && playingSegmentIndex >= 0) {
+            // Its page is loading, so its word times are not known yet
+            next = Math.min(next, position + SEGMENT_LOAD_WAIT_MS);
+        }
+        return next;
+    }
+    
+    /**
+     * Playback time covered by one pixel of the seek bar
+     */
+    private long getSeekBarStepMs() {
+        return Math.max(1, durationMs / Math.max(1, seekBar.getWidth()));
+    }
+    
+    /**
+     * Mark the word being spoken, for segments that have word times. Runs on every tick,
+     * so it only searches the segment's packed timings and allocates nothing.
+     */
+    private void updatePlayingWord(int segmentIndex, long position) {
+        AudioSegment segment = segmentIndex >= 0 && viewModel.getSegmentPager() != null
+                ? viewModel.getSegmentPager().getSegment(segmentIndex)
+                : null;
+        playingSegmentIndex = segmentIndex;
+        playingSegment = segment;
+        int[] timings = segment != null ? segment.getWordTimings() : null;
+        int word = timings != null ? WordTimings.find(timings, position - segment.getStart()) : -1;
+        if (word < 0) {
+            adapter.setPlayingWord(-1, -1, -1);
+            return;
+        }
+        
+        int offset = word * WordTimings.STRIDE;
+        adapter.setPlayingWord(segmentIndex,
+                timings[offset + WordTimings.CHAR_START],
+                timings[offset + WordTimings.CHAR_END]);
+    }
+    
     private void startUpdatingSeekBar() {
-        handler.post(updateSeekBarRunnable);
+        if (playbackClock != null) {
+            playbackClock.start();
+        }
     }
     
     private void stopUpdatingSeekBar() {
-        handler.removeCallbacks(updateSeekBarRunnable);
+        if (playbackClock != null) {
+            playbackClock.stop();
+        }
     }
     
     @Override
@@ -307,15 +403,19 @@ public class StoryReaderActivity extends AppCompatActivity {
             viewModel.setIsPlaying(false);
         }
         stopUpdatingSeekBar();
+        viewModel.flushAudioPosition();
     }
     
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        stopUpdatingSeekBar();
         if (mediaPlayer != null) {
             mediaPlayer.release();
             mediaPlayer = null;
         }
-        handler.removeCallbacks(updateSeekBarRunnable);
+        if (viewModel != null) {
+            viewModel.flushAudioPosition();
+        }
     }
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package com.nihonreader.app.adapters;
 
 import android.content.Context;
+import android.util.LruCache;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -13,20 +14,43 @@ import com.nihonreader.app.R;
 import com.nihonreader.app.fragments.WordPopupFragment;
 import com.nihonreader.app.models.AudioSegment;
 import com.nihonreader.app.models.JapaneseWord;
+import com.nihonreader.app.repository.SegmentPager;
 import com.nihonreader.app.repository.StoryRepository;
 import com.nihonreader.app.utils.DictionaryLookupService;
+import com.nihonreader.app.utils.TokenCodec;
 import com.nihonreader.app.views.JapaneseTextView;
 
-import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Adapter for displaying text segments in a RecyclerView with Japanese word parsing
  */
 public class TextSegmentAdapter extends RecyclerView.Adapter<TextSegmentAdapter.TextSegmentViewHolder> {
     
-    private List<AudioSegment> segments = new ArrayList<>();
+    // Number of segments ahead of a bound position whose spans are built in advance
+    private static final int PREFETCH_DISTANCE = 4;
+    private static final int PREPARED_CACHE_SIZE = 32;
+    
+    // Partial rebinds that leave the text and its spans alone
+    private static final Object PAYLOAD_SELECTION = new Object();
+    private static final Object PAYLOAD_PLAYING_WORD = new Object();
+    
+    // Segments are loaded a page at a time; only the count is known up front
+    private SegmentPager segmentPager;
+    private int segmentCount;
+    private final LruCache<Integer, JapaneseTextView.PreparedText> preparedTexts =
+            new LruCache<>(PREPARED_CACHE_SIZE);
+    private final Set<Integer> pendingPrefetches = new HashSet<>();
+    // Bumped whenever the data changes so stale prefetch results are dropped
+    private int dataGeneration;
     private int selectedPosition = -1;
+    // Segment and characters of the word being spoken, or -1 if none
+    private int playingPosition = -1;
+    private int playingCharStart = -1;
+    private int playingCharEnd = -1;
     private DictionaryLookupService dictionaryLookupService;
     
     public TextSegmentAdapter(Context context) {
@@ -44,13 +68,27 @@ public class TextSegmentAdapter extends RecyclerView.Adapter<TextSegmentAdapter.
     
     @Override
     public void onBindViewHolder(@NonNull TextSegmentViewHolder holder, int position) {
-        AudioSegment segment = segments.get(position);
+        AudioSegment segment = segmentPager != null ? segmentPager.getSegment(position) : null;
+        holder.itemView.setSelected(position == selectedPosition);
+        if (segment == null) {
+            // The page is loading; the item is rebound once it arrives
+            holder.japaneseTextView.setJapaneseText("", Collections.emptyList());
+            return;
+        }
         
-        // Use the JapaneseTextView to display parsed text
-        holder.japaneseTextView.setJapaneseText(segment.getText());
+        // Use the JapaneseTextView to display parsed text. Spans are built off the UI thread
+        // unless a prefetch already prepared them; stored tokens skip the tokenizer entirely.
+        JapaneseTextView.PreparedText prepared = preparedTexts.get(position);
+        if (prepared != null && prepared.getText().equals(segment.getText())) {
+            holder.japaneseTextView.setPreparedText(prepared);
+        } else {
+            List<JapaneseWord> words = TokenCodec.decode(segment.getText(), segmentPager.getTokens(position));
+            holder.japaneseTextView.setJapaneseTextAsync(segment.getText(), words);
+        }
+        bindPlayingWord(holder, position);
         
-        // Set selection state
-        holder.itemView.setSelected(position == selectedPosition);
+        // Get the segments the user is about to scroll or play into ready
+        prefetch(position + 1, PREFETCH_DISTANCE);
         
         // Set word click listener to show the dialog with dictionary lookup
         holder.japaneseTextView.setOnWordClickListener(word -> {
@@ -102,13 +140,92 @@ public class TextSegmentAdapter extends RecyclerView.Adapter<TextSegmentAdapter.
         });
     }
     
+    @Override
+    public void onBindViewHolder(@NonNull TextSegmentViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        
+        for (Object payload : payloads) {
+            if (payload == PAYLOAD_SELECTION) {
+                holder.itemView.setSelected(position == selectedPosition);
+            } else if (payload == PAYLOAD_PLAYING_WORD) {
+                bindPlayingWord(holder, position);
+            }
+        }
+    }
+    
+    private void bindPlayingWord(TextSegmentViewHolder holder, int position) {
+        if (position == playingPosition) {
+            holder.japaneseTextView.setPlayingRange(playingCharStart, playingCharEnd);
+        } else {
+            holder.japaneseTextView.setPlayingRange(-1, -1);
+        }
+    }
+    
+    @Override
+    public void onViewRecycled(@NonNull TextSegmentViewHolder holder) {
+        super.onViewRecycled(holder);
+        // Don't let a slow span build land on a holder that now shows another segment
+        holder.japaneseTextView.cancelPendingText();
+    }
+    
+    /**
+     * Build the spans for a range of segments in the background so they bind instantly
+     * @param from First position to prepare
+     * @param count Number of positions to prepare
+     */
+    public void prefetch(int from, int count) {
+        if (segmentPager == null) {
+            return;
+        }
+        
+        int end = Math.min(segmentCount, from + count);
+        for (int position = Math.max(0, from); position < end; position++) {
+            AudioSegment segment = segmentPager.getSegment(position);
+            if (segment == null || preparedTexts.get(position) != null || !pendingPrefetches.add(position)) {
+                continue;
+            }
+            
+            final int prefetchPosition = position;
+            final int generation = dataGeneration;
+            String text = segment.getText();
+            List<JapaneseWord> words = TokenCodec.decode(text, segmentPager.getTokens(position));
+            JapaneseTextView.prepareAsync(text, words, prepared -> {
+                if (generation == dataGeneration) {
+                    pendingPrefetches.remove(prefetchPosition);
+                    preparedTexts.put(prefetchPosition, prepared);
+                }
+            });
+        }
+    }
+    
+    private void invalidatePreparedTexts() {
+        dataGeneration++;
+        preparedTexts.evictAll();
+        pendingPrefetches.clear();
+    }
+    
     @Override
     public int getItemCount() {
-        return segments.size();
+        return segmentCount;
+    }
+    
+    /**
+     * Show the segments of a story through a pager, which loads them as they are needed
+     */
+    public void setSegmentPager(SegmentPager segmentPager) {
+        this.segmentPager = segmentPager;
+        segmentPager.setOnPageLoadedListener((fromIndex, count) -> notifyItemRangeChanged(fromIndex, count));
     }
     
-    public void setSegments(List<AudioSegment> segments) {
-        this.segments = segments;
+    /**
+     * Set the number of segments, e.g. after the story's segments changed
+     */
+    public void setSegmentCount(int segmentCount) {
+        this.segmentCount = segmentCount;
+        invalidatePreparedTexts();
         notifyDataSetChanged();
     }
     
@@ -118,14 +235,39 @@ public class TextSegmentAdapter extends RecyclerView.Adapter<TextSegmentAdapter.
             selectedPosition = position;
             
             if (previousSelected >= 0) {
-                notifyItemChanged(previousSelected);
+                notifyItemChanged(previousSelected, PAYLOAD_SELECTION);
             }
             if (selectedPosition >= 0) {
-                notifyItemChanged(selectedPosition);
+                notifyItemChanged(selectedPosition, PAYLOAD_SELECTION);
+                if (segmentPager != null) {
+                    segmentPager.loadAround(selectedPosition);
+                }
+                prefetch(selectedPosition + 1, PREFETCH_DISTANCE);
             }
         }
     }
     
+    /**
+     * Mark the word being spoken within a segment
+     * @param position The segment, or -1 to clear the mark
+     */
+    public void setPlayingWord(int position, int charStart, int charEnd) {
+        if (position == playingPosition && charStart == playingCharStart && charEnd == playingCharEnd) {
+            return;
+        }
+        int previousPlaying = playingPosition;
+        playingPosition = position;
+        playingCharStart = charStart;
+        playingCharEnd = charEnd;
+        
+        if (previousPlaying >= 0 && previousPlaying != position) {
+            notifyItemChanged(previousPlaying, PAYLOAD_PLAYING_WORD);
+        }
+        if (position >= 0) {
+            notifyItemChanged(position, PAYLOAD_PLAYING_WORD);
+        }
+    }
+    
     class TextSegmentViewHolder extends RecyclerView.ViewHolder {
         private JapaneseTextView japaneseTextView;
         
@@ -1,6 +1,7 @@
 package com.nihonreader.app.database;
 
 import android.content.Context;
+import android.database.Cursor;
 
 import androidx.annotation.NonNull;
 import androidx.room.Database;
@@ -8,20 +9,26 @@ import androidx.room.Room;
 import androidx.room.RoomDatabase;
 import androidx.room.migration.Migration;
 import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
 
+import com.nihonreader.app.models.AudioSegment;
 import com.nihonreader.app.models.Folder;
+import com.nihonreader.app.models.SegmentTokens;
 import com.nihonreader.app.models.Story;
 import com.nihonreader.app.models.StoryContent;
+import com.nihonreader.app.models.StorySegment;
 import com.nihonreader.app.models.UserProgress;
 import com.nihonreader.app.models.VocabularyItem;
 
+import java.util.List;
 import java.util.UUID;
 
 /**
  * Main database class for the application
  */
-@Database(entities = {Story.class, StoryContent.class, UserProgress.class, VocabularyItem.class, Folder.class}, 
-          version = 2, 
+@Database(entities = {Story.class, StoryContent.class, UserProgress.class, VocabularyItem.class, Folder.class,
+                      SegmentTokens.class, StorySegment.class}, 
+          version = 5, 
           exportSchema = false)
 public abstract class AppDatabase extends RoomDatabase {
     
@@ -33,6 +40,8 @@ public abstract class AppDatabase extends RoomDatabase {
     public abstract UserProgressDao userProgressDao();
     public abstract VocabularyDao vocabularyDao();
     public abstract FolderDao folderDao();
+    public abstract SegmentTokensDao segmentTokensDao();
+    public abstract StorySegmentDao storySegmentDao();
     
     // Migration from version 1 to 2 (adding folders and ordering)
     private static final Migration MIGRATION_1_2 = new Migration(1, 2) {
@@ -57,13 +66,84 @@ public abstract class AppDatabase extends RoomDatabase {
         }
     };
     
+    // Migration from version 2 to 3 (adding pre-computed segment tokens)
+    private static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            // Tokens for existing stories are computed the first time they are opened
+            database.execSQL("CREATE TABLE IF NOT EXISTS `segment_tokens` " +
+                    "(`storyId` TEXT NOT NULL, `segmentIndex` INTEGER NOT NULL, `tokenData` BLOB, " +
+                    "PRIMARY KEY(`storyId`, `segmentIndex`))");
+        }
+    };
+    
+    // Migration from version 3 to 4 (segments move from a JSON column to their own table)
+    private static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `audio_segments` " +
+                    "(`storyId` TEXT NOT NULL, `segmentIndex` INTEGER NOT NULL, " +
+                    "`startTime` INTEGER NOT NULL, `endTime` INTEGER NOT NULL, `text` TEXT, " +
+                    "PRIMARY KEY(`storyId`, `segmentIndex`))");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_audio_segments_storyId_startTime` " +
+                    "ON `audio_segments` (`storyId`, `startTime`)");
+            
+            // Unpack the existing segment blobs into rows
+            SupportSQLiteStatement insert = database.compileStatement(
+                    "INSERT OR REPLACE INTO audio_segments (storyId, segmentIndex, startTime, endTime, text) " +
+                    "VALUES (?, ?, ?, ?, ?)");
+            try (Cursor cursor = database.query("SELECT storyId, segments FROM story_contents " +
+                    "WHERE storyId IS NOT NULL AND segments IS NOT NULL")) {
+                while (cursor.moveToNext()) {
+                    String storyId = cursor.getString(0);
+                    List<AudioSegment> segments = Converters.toAudioSegmentList(cursor.getString(1));
+                    if (segments == null) {
+                        continue;
+                    }
+                    
+                    for (int i = 0; i < segments.size(); i++) {
+                        AudioSegment segment = segments.get(i);
+                        insert.clearBindings();
+                        insert.bindString(1, storyId);
+                        insert.bindLong(2, i);
+                        insert.bindLong(3, segment.getStart());
+                        insert.bindLong(4, segment.getEnd());
+                        if (segment.getText() != null) {
+                            insert.bindString(5, segment.getText());
+                        } else {
+                            insert.bindNull(5);
+                        }
+                        insert.executeInsert();
+                    }
+                }
+            }
+            
+            // SQLite cannot drop a column here, so the table is rebuilt without it
+            database.execSQL("CREATE TABLE IF NOT EXISTS `story_contents_new` " +
+                    "(`id` TEXT NOT NULL, `storyId` TEXT, `text` TEXT, `audioUri` TEXT, " +
+                    "`vocabulary` TEXT, PRIMARY KEY(`id`))");
+            database.execSQL("INSERT INTO story_contents_new (id, storyId, text, audioUri, vocabulary) " +
+                    "SELECT id, storyId, text, audioUri, vocabulary FROM story_contents");
+            database.execSQL("DROP TABLE story_contents");
+            database.execSQL("ALTER TABLE story_contents_new RENAME TO story_contents");
+        }
+    };
+    
+    // Migration from version 4 to 5 (optional per-word times for segments)
+    private static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE audio_segments ADD COLUMN wordTimings BLOB");
+        }
+    };
+    
     public static synchronized AppDatabase getInstance(Context context) {
         if (instance == null) {
             instance = Room.databaseBuilder(
                     context.getApplicationContext(),
                     AppDatabase.class,
                     DATABASE_NAME)
-                    .addMigrations(MIGRATION_1_2)
+                    .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5)
                     .fallbackToDestructiveMigration()
                     .build();
         }
@@ -0,0 +1,34 @@
+package com.nihonreader.app.database;
+
+import androidx.lifecycle.LiveData;
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import com.nihonreader.app.models.SegmentTokens;
+
+import java.util.List;
+
+/**
+ * Data Access Object for pre-computed segment tokens
+ */
+@Dao
+public interface SegmentTokensDao {
+    
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertAll(List<SegmentTokens> segmentTokens);
+    
+    @Query("DELETE FROM segment_tokens WHERE storyId = :storyId")
+    void deleteByStoryId(String storyId);
+    
+    @Query("SELECT * FROM segment_tokens WHERE storyId = :storyId ORDER BY segmentIndex ASC")
+    LiveData<List<SegmentTokens>> getTokensForStory(String storyId);
+    
+    @Query("SELECT * FROM segment_tokens WHERE storyId = :storyId AND segmentIndex >= :fromIndex " +
+           "AND segmentIndex < :fromIndex + :count ORDER BY segmentIndex ASC")
+    List<SegmentTokens> getTokenRange(String storyId, int fromIndex, int count);
+    
+    @Query("SELECT COUNT(*) FROM segment_tokens WHERE storyId = :storyId")
+    int getTokenCount(String storyId);
+}
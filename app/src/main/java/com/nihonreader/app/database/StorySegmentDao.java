@@ -0,0 +1,53 @@
+package com.nihonreader.app.database;
+
+import android.database.Cursor;
+
+import androidx.lifecycle.LiveData;
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import com.nihonreader.app.models.StorySegment;
+
+import java.util.List;
+
+/**
+ * Data Access Object for the timed segments of stories
+ */
+@Dao
+public interface StorySegmentDao {
+    
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertAll(List<StorySegment> segments);
+    
+    @Query("DELETE FROM audio_segments WHERE storyId = :storyId")
+    void deleteByStoryId(String storyId);
+    
+    @Query("SELECT * FROM audio_segments WHERE storyId = :storyId ORDER BY segmentIndex ASC")
+    LiveData<List<StorySegment>> getSegmentsForStory(String storyId);
+    
+    @Query("SELECT * FROM audio_segments WHERE storyId = :storyId ORDER BY segmentIndex ASC")
+    List<StorySegment> getSegmentsForStorySync(String storyId);
+    
+    @Query("SELECT * FROM audio_segments WHERE storyId = :storyId AND segmentIndex >= :fromIndex " +
+           "ORDER BY segmentIndex ASC LIMIT :count")
+    List<StorySegment> getSegmentRange(String storyId, int fromIndex, int count);
+    
+    /**
+     * Start and end times of every segment in index order, without loading any text
+     */
+    @Query("SELECT startTime, endTime FROM audio_segments WHERE storyId = :storyId ORDER BY segmentIndex ASC")
+    Cursor getSegmentTimes(String storyId);
+    
+    @Query("SELECT COUNT(*) FROM audio_segments WHERE storyId = :storyId")
+    int getSegmentCount(String storyId);
+    
+    @Query("UPDATE audio_segments SET startTime = :startTime, endTime = :endTime " +
+           "WHERE storyId = :storyId AND segmentIndex = :segmentIndex")
+    void updateTimes(String storyId, int segmentIndex, long startTime, long endTime);
+    
+    @Query("UPDATE audio_segments SET startTime = :startTime, endTime = :endTime, wordTimings = :wordTimings " +
+           "WHERE storyId = :storyId AND segmentIndex = :segmentIndex")
+    void updateTimesAndWords(String storyId, int segmentIndex, long startTime, long endTime, byte[] wordTimings);
+}
@@ -8,6 +8,7 @@ public class AudioSegment {
     private long start; // Start time in milliseconds
     private long end;   // End time in milliseconds
     private String text; // The text segment
+    private int[] wordTimings; // Packed per-word times, see WordTimings; null if unknown
 
     public AudioSegment(long start, long end, String text) {
         this.start = start;
@@ -38,4 +39,16 @@ public class AudioSegment {
     public void setText(String text) {
         this.text = text;
     }
-}
\ No newline at end of file
+
+    /**
+     * Per-word times packed by {@link com.nihonreader.app.utils.WordTimings}
+     * @return The timings, or null if the segment only has sentence times
+     */
+    public int[] getWordTimings() {
+        return wordTimings;
+    }
+
+    public void setWordTimings(int[] wordTimings) {
+        this.wordTimings = wordTimings;
+    }
+}
@@ -0,0 +1,48 @@
+package com.nihonreader.app.models;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+
+/**
+ * Entity holding the pre-computed Kuromoji tokens for one audio segment of a story.
+ * The tokens are packed with {@link com.nihonreader.app.utils.TokenCodec}.
+ */
+@Entity(tableName = "segment_tokens", primaryKeys = {"storyId", "segmentIndex"})
+public class SegmentTokens {
+    
+    @NonNull
+    private String storyId;
+    private int segmentIndex;
+    private byte[] tokenData;
+
+    public SegmentTokens(@NonNull String storyId, int segmentIndex, byte[] tokenData) {
+        this.storyId = storyId;
+        this.segmentIndex = segmentIndex;
+        this.tokenData = tokenData;
+    }
+
+    @NonNull
+    public String getStoryId() {
+        return storyId;
+    }
+
+    public void setStoryId(@NonNull String storyId) {
+        this.storyId = storyId;
+    }
+
+    public int getSegmentIndex() {
+        return segmentIndex;
+    }
+
+    public void setSegmentIndex(int segmentIndex) {
+        this.segmentIndex = segmentIndex;
+    }
+
+    public byte[] getTokenData() {
+        return tokenData;
+    }
+
+    public void setTokenData(byte[] tokenData) {
+        this.tokenData = tokenData;
+    }
+}
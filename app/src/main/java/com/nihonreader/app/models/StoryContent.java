@@ -2,6 +2,7 @@ package com.nihonreader.app.models;
 
 import androidx.annotation.NonNull;
 import androidx.room.Entity;
+import androidx.room.Ignore;
 import androidx.room.PrimaryKey;
 import androidx.room.TypeConverters;
 
@@ -23,6 +24,8 @@ public class StoryContent {
     private String storyId;
     private String text;
     private String audioUri;
+    // Stored as rows of the audio_segments table, see StorySegment
+    @Ignore
     private List<AudioSegment> segments;
     private List<VocabularyItem> vocabulary;
 
@@ -0,0 +1,116 @@
+package com.nihonreader.app.models;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.Index;
+
+import com.nihonreader.app.utils.WordTimings;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Entity holding one timed audio segment of a story, one row per segment.
+ * The reader works with {@link AudioSegment}; this is its stored form.
+ */
+@Entity(tableName = "audio_segments",
+        primaryKeys = {"storyId", "segmentIndex"},
+        indices = {@Index(value = {"storyId", "startTime"})})
+public class StorySegment {
+    
+    @NonNull
+    private String storyId;
+    private int segmentIndex;
+    private long startTime; // Start time in milliseconds
+    private long endTime;   // End time in milliseconds
+    private String text;
+    private byte[] wordTimings; // Encoded with WordTimings; null if only sentence times are known
+
+    public StorySegment(@NonNull String storyId, int segmentIndex, long startTime, long endTime, String text) {
+        this.storyId = storyId;
+        this.segmentIndex = segmentIndex;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.text = text;
+    }
+
+    /**
+     * Convert a story's segments to rows, numbering them in list order
+     */
+    public static List<StorySegment> fromAudioSegments(String storyId, List<AudioSegment> segments) {
+        List<StorySegment> rows = new ArrayList<>(segments.size());
+        for (int i = 0; i < segments.size(); i++) {
+            AudioSegment segment = segments.get(i);
+            StorySegment row = new StorySegment(storyId, i, segment.getStart(), segment.getEnd(), segment.getText());
+            row.setWordTimings(WordTimings.encode(segment.getWordTimings()));
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Convert rows, ordered by segment index, back to audio segments
+     */
+    public static List<AudioSegment> toAudioSegments(List<StorySegment> rows) {
+        List<AudioSegment> segments = new ArrayList<>(rows.size());
+        for (StorySegment row : rows) {
+            segments.add(row.toAudioSegment());
+        }
+        return segments;
+    }
+
+    public AudioSegment toAudioSegment() {
+        AudioSegment segment = new AudioSegment(startTime, endTime, text);
+        segment.setWordTimings(WordTimings.decode(wordTimings));
+        return segment;
+    }
+
+    @NonNull
+    public String getStoryId() {
+        return storyId;
+    }
+
+    public void setStoryId(@NonNull String storyId) {
+        this.storyId = storyId;
+    }
+
+    public int getSegmentIndex() {
+        return segmentIndex;
+    }
+
+    public void setSegmentIndex(int segmentIndex) {
+        this.segmentIndex = segmentIndex;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(long startTime) {
+        this.startTime = startTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(long endTime) {
+        this.endTime = endTime;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    public byte[] getWordTimings() {
+        return wordTimings;
+    }
+
+    public void setWordTimings(byte[] wordTimings) {
+        this.wordTimings = wordTimings;
+    }
+}
@@ -0,0 +1,64 @@
+package com.nihonreader.app.repository;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.nihonreader.app.database.UserProgressDao;
+
+/**
+ * Persists the playback position of a story without writing on every seek bar tick.
+ *
+ * The latest position is kept in memory and written at most once per flush interval;
+ * positions reported in between simply replace the pending one. Callers flush explicitly
+ * when playback pauses or the screen goes away so the last position is never lost.
+ * All methods are meant to be called from the main thread.
+ */
+public class AudioProgressWriter {
+
+    private static final long FLUSH_INTERVAL_MS = 2000;
+    private static final long NO_POSITION = -1;
+
+    private final DatabaseScheduler scheduler;
+    private final UserProgressDao userProgressDao;
+    private final String storyId;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable flushRunnable = this::flush;
+
+    private long pendingPosition = NO_POSITION;
+    private long lastWrittenPosition = NO_POSITION;
+    private boolean flushScheduled;
+
+    AudioProgressWriter(DatabaseScheduler scheduler, UserProgressDao userProgressDao, String storyId) {
+        this.scheduler = scheduler;
+        this.userProgressDao = userProgressDao;
+        this.storyId = storyId;
+    }
+
+    /**
+     * Record the current playback position; it is written with the next flush
+     */
+    public void update(long position) {
+        pendingPosition = position;
+        if (!flushScheduled) {
+            flushScheduled = true;
+            handler.postDelayed(flushRunnable, FLUSH_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * Write the pending position now, if it changed since the last write
+     */
+    public void flush() {
+        handler.removeCallbacks(flushRunnable);
+        flushScheduled = false;
+
+        final long position = pendingPosition;
+        pendingPosition = NO_POSITION;
+        if (position == NO_POSITION || position == lastWrittenPosition) {
+            return;
+        }
+
+        lastWrittenPosition = position;
+        scheduler.write(() -> userProgressDao.updateAudioPosition(storyId, position));
+    }
+}
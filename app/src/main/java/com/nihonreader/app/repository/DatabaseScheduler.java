@@ -0,0 +1,210 @@
+package com.nihonreader.app.repository;
+
+import android.util.Log;
+
+import com.nihonreader.app.database.AppDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared background scheduler for repository database work.
+ *
+ * Reads and CPU-bound preparation run on a small bounded pool. Mutations go through a
+ * single writer thread that drains everything queued so far and commits it in one Room
+ * transaction, so bursts of small writes pay for one transaction instead of one each.
+ * If a mutation fails the whole batch is rolled back and its mutations are run again one
+ * transaction each, so a failed mutation leaves none of its changes behind and only its
+ * own future completes with the exception.
+ */
+public class DatabaseScheduler {
+
+    private static final String TAG = "DatabaseScheduler";
+
+    private static final int READ_THREADS = 4;
+    private static final int MAX_BATCH_SIZE = 64;
+
+    private static DatabaseScheduler instance;
+
+    private final AppDatabase database;
+    private final ThreadPoolExecutor readExecutor;
+    private final BlockingQueue<WriteTask> writeQueue = new LinkedBlockingQueue<>();
+    // Callbacks registered by the mutations of the transaction in progress; writer thread only
+    private final List<Runnable> commitCallbacks = new ArrayList<>();
+
+    private DatabaseScheduler(AppDatabase database) {
+        this.database = database;
+
+        // With an unbounded queue the pool never grows past its core size, so core is the limit
+        readExecutor = new ThreadPoolExecutor(READ_THREADS, READ_THREADS,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> new Thread(runnable, "db-read"));
+        // Lets idle read threads go, since most of the time nothing is reading
+        readExecutor.allowCoreThreadTimeOut(true);
+
+        Thread writer = new Thread(this::runWriter, "db-write");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public static synchronized DatabaseScheduler getInstance(AppDatabase database) {
+        if (instance == null) {
+            instance = new DatabaseScheduler(database);
+        }
+        return instance;
+    }
+
+    /**
+     * Run a read or preparation step on the read pool
+     */
+    public <T> Future<T> read(Callable<T> task) {
+        return readExecutor.submit(task);
+    }
+
+    /**
+     * Queue a mutation; it is committed together with any other queued mutations
+     * @return A future that completes once the batch containing the mutation is committed
+     */
+    public Future<?> write(Runnable mutation) {
+        WriteTask task = new WriteTask(mutation);
+        writeQueue.add(task);
+        return task;
+    }
+
+    /**
+     * Prepare a mutation on the read pool, then queue it. The read thread is released as
+     * soon as the mutation is queued rather than waiting for it to be committed.
+     * @param prepare Returns the mutation to queue, or null if there is nothing to write
+     * @return A future that completes once the mutation is committed, or straight after
+     * preparing if there was nothing to write
+     */
+    public Future<?> readThenWrite(Callable<Runnable> prepare) {
+        WriteTask task = new WriteTask(null);
+        readExecutor.execute(() -> {
+            if (task.isCancelled()) {
+                return;
+            }
+            Runnable mutation;
+            try {
+                mutation = prepare.call();
+            } catch (Exception e) {
+                Log.e(TAG, "Error preparing write", e);
+                task.complete(e);
+                return;
+            }
+            if (mutation == null) {
+                task.complete(null);
+            } else {
+                task.mutation = mutation;
+                writeQueue.add(task);
+            }
+        });
+        return task;
+    }
+
+    /**
+     * From inside a mutation, run a callback on the writer thread once the mutation's
+     * transaction has committed. Nothing is run if it is rolled back.
+     */
+    public void afterCommit(Runnable callback) {
+        commitCallbacks.add(callback);
+    }
+
+    private void runWriter() {
+        List<WriteTask> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (true) {
+            try {
+                batch.add(writeQueue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            writeQueue.drainTo(batch, MAX_BATCH_SIZE - 1);
+
+            try {
+                database.runInTransaction(() -> {
+                    for (WriteTask task : batch) {
+                        task.runMutation();
+                    }
+                });
+                runCommitCallbacks();
+                for (WriteTask task : batch) {
+                    task.complete(null);
+                }
+            } catch (RuntimeException e) {
+                commitCallbacks.clear();
+                if (batch.size() == 1) {
+                    Log.e(TAG, "Error in queued write", e);
+                    batch.get(0).complete(e);
+                } else {
+                    Log.w(TAG, "Batch of " + batch.size() + " writes rolled back, retrying one by one", e);
+                    for (WriteTask task : batch) {
+                        runAlone(task);
+                    }
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Run a mutation in a transaction of its own, so that if it fails it is rolled back
+     * without affecting any other
+     */
+    private void runAlone(WriteTask task) {
+        try {
+            database.runInTransaction(task::runMutation);
+            runCommitCallbacks();
+            task.complete(null);
+        } catch (RuntimeException e) {
+            commitCallbacks.clear();
+            Log.e(TAG, "Error in queued write", e);
+            task.complete(e);
+        }
+    }
+
+    private void runCommitCallbacks() {
+        for (Runnable callback : commitCallbacks) {
+            try {
+                callback.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Error in commit callback", e);
+            }
+        }
+        commitCallbacks.clear();
+    }
+
+    /**
+     * A queued mutation whose future completes after its batch is committed
+     */
+    private static class WriteTask extends FutureTask<Void> {
+        // Set before the task is queued; null while a chained write is still being prepared
+        private volatile Runnable mutation;
+
+        WriteTask(Runnable mutation) {
+            // Never run as a FutureTask; the writer completes it
+            super(() -> null);
+            this.mutation = mutation;
+        }
+
+        void runMutation() {
+            if (!isCancelled()) {
+                mutation.run();
+            }
+        }
+
+        void complete(Exception failure) {
+            if (failure != null) {
+                setException(failure);
+            } else {
+                set(null);
+            }
+        }
+    }
+}
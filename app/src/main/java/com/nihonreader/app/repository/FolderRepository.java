@@ -1,7 +1,6 @@
 package com.nihonreader.app.repository;
 
 import android.app.Application;
-import android.os.AsyncTask;
 
 import androidx.lifecycle.LiveData;
 
@@ -10,8 +9,7 @@ import com.nihonreader.app.database.FolderDao;
 import com.nihonreader.app.models.Folder;
 
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Repository for Folder operations
@@ -21,14 +19,14 @@ public class FolderRepository {
     private final FolderDao folderDao;
     private final LiveData<List<Folder>> allFolders;
     private final LiveData<Folder> defaultFolder;
-    private final ExecutorService executorService;
+    private final DatabaseScheduler scheduler;
     
     public FolderRepository(Application application) {
         AppDatabase database = AppDatabase.getInstance(application);
         folderDao = database.folderDao();
         allFolders = folderDao.getAllFolders();
         defaultFolder = folderDao.getDefaultFolder();
-        executorService = Executors.newSingleThreadExecutor();
+        scheduler = DatabaseScheduler.getInstance(database);
     }
     
     public LiveData<List<Folder>> getAllFolders() {
@@ -43,8 +41,8 @@ public class FolderRepository {
         return folderDao.getFolderById(folderId);
     }
     
-    public void insert(Folder folder) {
-        executorService.execute(() -> {
+    public Future<?> insert(Folder folder) {
+        return scheduler.write(() -> {
             // Get the max position to determine where to insert
             int maxPosition = folderDao.getMaxPosition();
             
@@ -60,18 +58,18 @@ public class FolderRepository {
         });
     }
     
-    public void update(Folder folder) {
-        executorService.execute(() -> folderDao.update(folder));
+    public Future<?> update(Folder folder) {
+        return scheduler.write(() -> folderDao.update(folder));
     }
     
-    public void delete(Folder folder) {
-        executorService.execute(() -> {
+    public Future<?> delete(Folder folder) {
+        return scheduler.write(() -> {
             folderDao.delete(folder);
             folderDao.shiftFolderPositionsAfterDelete(folder.getPosition());
         });
     }
     
-    public void reorderFolders(List<Folder> folders) {
-        executorService.execute(() -> folderDao.reorderFolders(folders));
+    public Future<?> reorderFolders(List<Folder> folders) {
+        return scheduler.write(() -> folderDao.reorderFolders(folders));
     }
 } 
\ No newline at end of file
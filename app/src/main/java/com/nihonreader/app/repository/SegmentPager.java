@@ -0,0 +1,245 @@
+package com.nihonreader.app.repository;
+
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.nihonreader.app.database.AppDatabase;
+import com.nihonreader.app.database.SegmentTokensDao;
+import com.nihonreader.app.database.StorySegmentDao;
+import com.nihonreader.app.models.AudioSegment;
+import com.nihonreader.app.models.SegmentTokens;
+import com.nihonreader.app.models.StorySegment;
+import com.nihonreader.app.utils.SegmentTimeline;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Windowed access to the segments of a long story.
+ *
+ * Only the segment times are loaded for the whole story, as a {@link SegmentTimeline}.
+ * Text and tokens are loaded in fixed-size pages around the positions being shown or
+ * played, and only a few pages are kept in memory. Any change to the story's segments
+ * or tokens reloads the timeline and drops the loaded pages: writers call
+ * {@link #markChanged(String)} for the story they touched once their transaction has
+ * committed, and only the pagers open on that story reload.
+ * All methods are meant to be called from the main thread.
+ */
+public class SegmentPager {
+
+    private static final String TAG = "SegmentPager";
+
+    public static final int PAGE_SIZE = 50;
+    private static final int MAX_PAGES = 6;
+
+    // Bumped for a story whenever its segments or tokens are written
+    private static final Map<String, Integer> storyVersions = new ConcurrentHashMap<>();
+    private static final List<SegmentPager> openPagers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Callback for pages loaded in the background, delivered on the main thread
+     */
+    public interface OnPageLoadedListener {
+        void onPageLoaded(int fromIndex, int count);
+    }
+
+    private final DatabaseScheduler scheduler;
+    private final StorySegmentDao storySegmentDao;
+    private final SegmentTokensDao segmentTokensDao;
+    private final String storyId;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final LruCache<Integer, Page> pages = new LruCache<>(MAX_PAGES);
+    private final Set<Integer> loadingPages = new HashSet<>();
+    private final MutableLiveData<SegmentTimeline> timeline = new MutableLiveData<>();
+    private OnPageLoadedListener onPageLoadedListener;
+    // Bumped on every reload so pages from before a change are dropped
+    private int generation;
+    // Version of the story the loaded timeline reflects
+    private int loadedVersion;
+
+    SegmentPager(AppDatabase database, DatabaseScheduler scheduler, String storyId) {
+        this.scheduler = scheduler;
+        this.storySegmentDao = database.storySegmentDao();
+        this.segmentTokensDao = database.segmentTokensDao();
+        this.storyId = storyId;
+
+        openPagers.add(this);
+        reload();
+    }
+
+    /**
+     * Times of every segment; its size is the number of segments in the story
+     */
+    public LiveData<SegmentTimeline> getTimeline() {
+        return timeline;
+    }
+
+    public void setOnPageLoadedListener(OnPageLoadedListener listener) {
+        this.onPageLoadedListener = listener;
+    }
+
+    /**
+     * Get a segment if its page is in memory, otherwise start loading the page
+     * @return The segment, or null if it is still loading
+     */
+    public AudioSegment getSegment(int index) {
+        Page page = getPage(index);
+        return page != null ? page.segments[index - page.fromIndex] : null;
+    }
+
+    /**
+     * Get the encoded tokens of a segment if its page is in memory
+     * @return The tokens, or null if they are still loading or were never stored
+     */
+    public byte[] getTokens(int index) {
+        Page page = getPage(index);
+        return page != null ? page.tokens[index - page.fromIndex] : null;
+    }
+
+    /**
+     * Make sure the pages around a position are loaded, e.g. ahead of playback
+     */
+    public void loadAround(int index) {
+        getPage(Math.max(0, index - PAGE_SIZE / 2));
+        getPage(index);
+        getPage(index + PAGE_SIZE / 2);
+    }
+
+    /**
+     * Stop watching for changes; the pager cannot be used afterwards
+     */
+    public void close() {
+        openPagers.remove(this);
+        generation++;
+        pages.evictAll();
+    }
+
+    /**
+     * Record that a story's segments or tokens were written, so its pagers reload. Call
+     * once the write has committed, so a reload cannot see the rows from before it.
+     * Safe to call from any thread.
+     */
+    static void markChanged(String storyId) {
+        storyVersions.merge(storyId, 1, Integer::sum);
+        for (SegmentPager pager : openPagers) {
+            if (pager.storyId.equals(storyId)) {
+                pager.mainHandler.post(pager::reloadIfChanged);
+            }
+        }
+    }
+
+    private static int versionOf(String storyId) {
+        Integer version = storyVersions.get(storyId);
+        return version != null ? version : 0;
+    }
+
+    private Page getPage(int index) {
+        SegmentTimeline current = timeline.getValue();
+        if (index < 0 || current == null || index >= current.size()) {
+            return null;
+        }
+
+        int pageNumber = index / PAGE_SIZE;
+        Page page = pages.get(pageNumber);
+        if (page == null && loadingPages.add(pageNumber)) {
+            loadPage(pageNumber);
+        }
+        return page;
+    }
+
+    private void loadPage(int pageNumber) {
+        final int pageGeneration = generation;
+        final int fromIndex = pageNumber * PAGE_SIZE;
+        scheduler.read(() -> {
+            List<StorySegment> rows = storySegmentDao.getSegmentRange(storyId, fromIndex, PAGE_SIZE);
+            List<SegmentTokens> tokens = segmentTokensDao.getTokenRange(storyId, fromIndex, PAGE_SIZE);
+            Page page = new Page(fromIndex, rows, tokens);
+            mainHandler.post(() -> {
+                if (pageGeneration != generation) {
+                    return;
+                }
+                loadingPages.remove(pageNumber);
+                pages.put(pageNumber, page);
+                if (onPageLoadedListener != null) {
+                    onPageLoadedListener.onPageLoaded(fromIndex, page.segments.length);
+                }
+            });
+            return null;
+        });
+    }
+
+    private void reloadIfChanged() {
+        if (versionOf(storyId) != loadedVersion) {
+            reload();
+        }
+    }
+
+    private void reload() {
+        loadedVersion = versionOf(storyId);
+        generation++;
+        pages.evictAll();
+        loadingPages.clear();
+
+        final int reloadGeneration = generation;
+        scheduler.read(() -> {
+            SegmentTimeline loaded = loadTimeline();
+            mainHandler.post(() -> {
+                if (reloadGeneration == generation) {
+                    timeline.setValue(loaded);
+                }
+            });
+            return null;
+        });
+    }
+
+    private SegmentTimeline loadTimeline() {
+        try (Cursor cursor = storySegmentDao.getSegmentTimes(storyId)) {
+            int count = cursor.getCount();
+            long[] starts = new long[count];
+            long[] ends = new long[count];
+            for (int i = 0; i < count && cursor.moveToNext(); i++) {
+                starts[i] = cursor.getLong(0);
+                ends[i] = cursor.getLong(1);
+            }
+            return new SegmentTimeline(starts, ends);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error loading segment times", e);
+            return new SegmentTimeline(new long[0], new long[0]);
+        }
+    }
+
+    /**
+     * A contiguous run of segments and their tokens
+     */
+    private static class Page {
+        final int fromIndex;
+        final AudioSegment[] segments;
+        final byte[][] tokens;
+
+        Page(int fromIndex, List<StorySegment> rows, List<SegmentTokens> tokenRows) {
+            this.fromIndex = fromIndex;
+            this.segments = new AudioSegment[rows.size()];
+            this.tokens = new byte[rows.size()][];
+            for (int i = 0; i < rows.size(); i++) {
+                segments[i] = rows.get(i).toAudioSegment();
+            }
+            for (SegmentTokens tokenRow : tokenRows) {
+                int offset = tokenRow.getSegmentIndex() - fromIndex;
+                if (offset >= 0 && offset < tokens.length) {
+                    tokens[offset] = tokenRow.getTokenData();
+                }
+            }
+        }
+    }
+}
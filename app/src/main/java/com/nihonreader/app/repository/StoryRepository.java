@@ -8,29 +8,41 @@ import android.os.AsyncTask;
 import android.util.Log;
 
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MediatorLiveData;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.nihonreader.app.database.AppDatabase;
+import com.nihonreader.app.database.SegmentTokensDao;
 import com.nihonreader.app.database.StoryContentDao;
 import com.nihonreader.app.database.StoryDao;
+import com.nihonreader.app.database.StorySegmentDao;
 import com.nihonreader.app.database.UserProgressDao;
 import com.nihonreader.app.database.VocabularyDao;
 import com.nihonreader.app.models.AudioSegment;
+import com.nihonreader.app.models.SegmentTokens;
 import com.nihonreader.app.models.Story;
 import com.nihonreader.app.models.StoryContent;
+import com.nihonreader.app.models.StorySegment;
 import com.nihonreader.app.models.UserProgress;
 import com.nihonreader.app.models.VocabularyItem;
 import com.nihonreader.app.utils.AudioUtils;
 import com.nihonreader.app.utils.FileUtils;
 import com.nihonreader.app.utils.JSONExportImportUtils;
+import com.nihonreader.app.utils.JapaneseTextUtils;
+import com.nihonreader.app.utils.PcmDecoder;
+import com.nihonreader.app.utils.PeakIndex;
+import com.nihonreader.app.utils.SegmentBoundarySuggester;
 import com.nihonreader.app.utils.SpeechAlignmentService;
+import com.nihonreader.app.utils.TokenCodec;
+import com.nihonreader.app.utils.WordTimings;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
@@ -38,6 +50,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Repository class that handles the data operations
@@ -50,23 +64,33 @@ public class StoryRepository {
     private final StoryContentDao storyContentDao;
     private final UserProgressDao userProgressDao;
     private final VocabularyDao vocabularyDao;
+    private final SegmentTokensDao segmentTokensDao;
+    private final StorySegmentDao storySegmentDao;
+    private final AppDatabase database;
+    private final DatabaseScheduler scheduler;
     private final Application application;
     
     public StoryRepository(Application application) {
-        AppDatabase database = AppDatabase.getInstance(application);
+        this.database = AppDatabase.getInstance(application);
         this.storyDao = database.storyDao();
         this.storyContentDao = database.storyContentDao();
         this.userProgressDao = database.userProgressDao();
         this.vocabularyDao = database.vocabularyDao();
+        this.segmentTokensDao = database.segmentTokensDao();
+        this.storySegmentDao = database.storySegmentDao();
+        this.scheduler = DatabaseScheduler.getInstance(database);
         this.application = application;
     }
     
     public StoryRepository(Context context) {
-        AppDatabase database = AppDatabase.getInstance(context);
+        this.database = AppDatabase.getInstance(context);
         this.storyDao = database.storyDao();
         this.storyContentDao = database.storyContentDao();
         this.userProgressDao = database.userProgressDao();
         this.vocabularyDao = database.vocabularyDao();
+        this.segmentTokensDao = database.segmentTokensDao();
+        this.storySegmentDao = database.storySegmentDao();
+        this.scheduler = DatabaseScheduler.getInstance(database);
         this.application = null;
     }
     
@@ -79,20 +103,28 @@ public class StoryRepository {
         return storyDao.getStoryById(storyId);
     }
     
-    public void insert(Story story) {
-        new InsertStoryAsyncTask(storyDao).execute(story);
+    public Future<?> insert(Story story) {
+        return scheduler.write(() -> storyDao.insert(story));
     }
     
-    public void update(Story story) {
-        new UpdateStoryAsyncTask(storyDao).execute(story);
+    public Future<?> update(Story story) {
+        return scheduler.write(() -> storyDao.update(story));
     }
     
-    public void delete(Story story) {
-        new DeleteStoryAsyncTask(storyDao, storyContentDao, userProgressDao).execute(story);
+    public Future<?> delete(Story story) {
+        return scheduler.write(() -> {
+            String storyId = story.getId();
+            scheduler.afterCommit(() -> SegmentPager.markChanged(storyId));
+            storyDao.delete(story);
+            storyContentDao.deleteByStoryId(storyId);
+            userProgressDao.deleteByStoryId(storyId);
+            segmentTokensDao.deleteByStoryId(storyId);
+            storySegmentDao.deleteByStoryId(storyId);
+        });
     }
     
-    public void updateLastOpened(String storyId, String timestamp) {
-        new UpdateLastOpenedAsyncTask(storyDao).execute(new String[]{storyId, timestamp});
+    public Future<?> updateLastOpened(String storyId, String timestamp) {
+        return scheduler.write(() -> storyDao.updateLastOpened(storyId, timestamp));
     }
     
     // New methods for folder operations
@@ -105,25 +137,193 @@ public class StoryRepository {
         return storyDao.getStoriesWithoutFolder();
     }
     
-    public void moveStoryToFolder(String storyId, String folderId) {
-        new MoveStoryToFolderAsyncTask(storyDao).execute(new StoryFolderParams(storyId, folderId));
+    public Future<?> moveStoryToFolder(String storyId, String folderId) {
+        return scheduler.write(() -> storyDao.moveStoryToFolder(storyId, folderId));
     }
     
-    public void moveAllStories(String fromFolderId, String toFolderId) {
-        new MoveAllStoriesAsyncTask(storyDao).execute(new FolderMoveParams(fromFolderId, toFolderId));
+    public Future<?> moveAllStories(String fromFolderId, String toFolderId) {
+        return scheduler.write(() -> storyDao.moveAllStories(fromFolderId, toFolderId));
     }
     
     // Story content operations
+    
+    /**
+     * Story content with its segments loaded from the audio_segments table
+     */
     public LiveData<StoryContent> getContentForStory(String storyId) {
+        return new StoryContentLiveData(storyContentDao.getContentForStory(storyId),
+                storySegmentDao.getSegmentsForStory(storyId));
+    }
+    
+    /**
+     * Story content without its segments, for screens that page through them instead
+     * @see #createSegmentPager(String)
+     */
+    public LiveData<StoryContent> getContentWithoutSegments(String storyId) {
         return storyContentDao.getContentForStory(storyId);
     }
     
-    public void insert(StoryContent storyContent) {
-        new InsertStoryContentAsyncTask(storyContentDao).execute(storyContent);
+    /**
+     * Create a pager that loads a story's segments a window at a time. Close it when done.
+     */
+    public SegmentPager createSegmentPager(String storyId) {
+        return new SegmentPager(database, scheduler, storyId);
+    }
+    
+    /**
+     * Load story content with its segments on the calling (background) thread
+     */
+    private static StoryContent loadContentSync(StoryContentDao storyContentDao, StorySegmentDao storySegmentDao,
+                                                String storyId) {
+        StoryContent content = storyContentDao.getContentForStorySync(storyId);
+        if (content != null) {
+            content.setSegments(StorySegment.toAudioSegments(storySegmentDao.getSegmentsForStorySync(storyId)));
+        }
+        return content;
+    }
+    
+    public Future<?> insert(StoryContent storyContent) {
+        return scheduler.write(() -> {
+            storyContentDao.insert(storyContent);
+            replaceSegments(scheduler, storySegmentDao, storyContent);
+        });
     }
     
-    public void update(StoryContent storyContent) {
-        new UpdateStoryContentAsyncTask(storyContentDao).execute(storyContent);
+    /**
+     * Update story content. When only segment times changed, as when editing timestamps,
+     * just the changed rows are updated and the stored tokens are kept. Otherwise the
+     * segments are replaced and their tokens rebuilt; tokenizing happens on the read pool
+     * so the writer is not held up.
+     * @return A future that completes once the content and segments are committed
+     */
+    public Future<?> update(StoryContent storyContent) {
+        return scheduler.readThenWrite(() -> {
+            String storyId = storyContent.getStoryId();
+            List<AudioSegment> segments = storyContent.getSegments();
+            List<StorySegment> stored = storySegmentDao.getSegmentsForStorySync(storyId);
+            
+            if (segments != null && sameTexts(stored, segments)) {
+                return () -> {
+                    scheduler.afterCommit(() -> SegmentPager.markChanged(storyId));
+                    storyContentDao.update(storyContent);
+                    for (int i = 0; i < segments.size(); i++) {
+                        AudioSegment segment = segments.get(i);
+                        StorySegment row = stored.get(i);
+                        if (row.getStartTime() == segment.getStart() && row.getEndTime() == segment.getEnd()) {
+                            continue;
+                        }
+                        if (row.getWordTimings() == null) {
+                            storySegmentDao.updateTimes(storyId, i, segment.getStart(), segment.getEnd());
+                        } else {
+                            // Word times are stored from the segment start, so they move with it
+                            int[] words = WordTimings.rebase(WordTimings.decode(row.getWordTimings()),
+                                    row.getStartTime(), segment.getStart(), segment.getEnd());
+                            storySegmentDao.updateTimesAndWords(storyId, i, segment.getStart(), segment.getEnd(),
+                                    WordTimings.encode(words));
+                        }
+                    }
+                };
+            }
+            
+            if (segments != null) {
+                carryWordTimings(stored, segments);
+            }
+            List<SegmentTokens> tokens = segments != null
+                    ? TokenCodec.encodeSegments(storyId, segments)
+                    : null;
+            return () -> {
+                storyContentDao.update(storyContent);
+                replaceSegments(scheduler, storySegmentDao, storyContent);
+                segmentTokensDao.deleteByStoryId(storyId);
+                if (tokens != null) {
+                    segmentTokensDao.insertAll(tokens);
+                }
+            };
+        });
+    }
+    
+    private static boolean sameTexts(List<StorySegment> stored, List<AudioSegment> segments) {
+        if (stored.size() != segments.size()) {
+            return false;
+        }
+        for (int i = 0; i < segments.size(); i++) {
+            String storedText = stored.get(i).getText();
+            if (storedText == null ? segments.get(i).getText() != null
+                    : !storedText.equals(segments.get(i).getText())) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Give segments without word times of their own the stored times of the rows whose
+     * text they still hold, moved to the segment's new start. A segment made by merging
+     * rows gets the words of each; a segment whose text was edited gets none.
+     */
+    private static void carryWordTimings(List<StorySegment> stored, List<AudioSegment> segments) {
+        int next = 0;
+        for (AudioSegment segment : segments) {
+            String text = segment.getText();
+            int[] words = null;
+            int from = 0;
+            boolean matched = false;
+            while (text != null && next < stored.size()) {
+                StorySegment row = stored.get(next);
+                String rowText = row.getText();
+                int at = rowText == null || rowText.isEmpty() ? -1 : text.indexOf(rowText, from);
+                // Merged rows follow each other with only whitespace between them
+                if (at < 0 || !text.substring(from, at).trim().isEmpty()) {
+                    break;
+                }
+                words = WordTimings.append(words, WordTimings.decode(row.getWordTimings()),
+                        row.getStartTime() - segment.getStart(), at, segment.getEnd() - segment.getStart());
+                from = at + rowText.length();
+                matched = true;
+                next++;
+            }
+            if (!matched && next < stored.size()) {
+                // Assume this segment is the edited version of the row
+                next++;
+            }
+            if (segment.getWordTimings() == null) {
+                segment.setWordTimings(words);
+            }
+        }
+    }
+    
+    private static void replaceSegments(DatabaseScheduler scheduler, StorySegmentDao storySegmentDao,
+                                        StoryContent storyContent) {
+        String storyId = storyContent.getStoryId();
+        scheduler.afterCommit(() -> SegmentPager.markChanged(storyId));
+        storySegmentDao.deleteByStoryId(storyContent.getStoryId());
+        if (storyContent.getSegments() != null) {
+            storySegmentDao.insertAll(
+                    StorySegment.fromAudioSegments(storyContent.getStoryId(), storyContent.getSegments()));
+        }
+    }
+    
+    // Segment token operations
+    
+    /**
+     * Tokenize a story's segments in the background if they have not been stored yet,
+     * e.g. for stories imported before tokens were persisted
+     */
+    public Future<?> ensureSegmentTokens(String storyId) {
+        return scheduler.readThenWrite(() -> {
+            if (segmentTokensDao.getTokenCount(storyId) == storySegmentDao.getSegmentCount(storyId)) {
+                return null;
+            }
+            
+            List<AudioSegment> segments =
+                    StorySegment.toAudioSegments(storySegmentDao.getSegmentsForStorySync(storyId));
+            List<SegmentTokens> tokens = TokenCodec.encodeSegments(storyId, segments);
+            return () -> {
+                scheduler.afterCommit(() -> SegmentPager.markChanged(storyId));
+                segmentTokensDao.deleteByStoryId(storyId);
+                segmentTokensDao.insertAll(tokens);
+            };
+        });
     }
     
     // User progress operations
@@ -131,16 +331,23 @@ public class StoryRepository {
         return userProgressDao.getProgressForStory(storyId);
     }
     
-    public void insert(UserProgress userProgress) {
-        new InsertUserProgressAsyncTask(userProgressDao).execute(userProgress);
+    public Future<?> insert(UserProgress userProgress) {
+        return scheduler.write(() -> userProgressDao.insert(userProgress));
+    }
+    
+    public Future<?> update(UserProgress userProgress) {
+        return scheduler.write(() -> userProgressDao.update(userProgress));
     }
     
-    public void update(UserProgress userProgress) {
-        new UpdateUserProgressAsyncTask(userProgressDao).execute(userProgress);
+    public Future<?> updateAudioPosition(String storyId, long position) {
+        return scheduler.write(() -> userProgressDao.updateAudioPosition(storyId, position));
     }
     
-    public void updateAudioPosition(String storyId, long position) {
-        new UpdateAudioPositionAsyncTask(userProgressDao).execute(new Object[]{storyId, position});
+    /**
+     * Create a writer that coalesces frequent playback position updates for a story
+     */
+    public AudioProgressWriter createAudioProgressWriter(String storyId) {
+        return new AudioProgressWriter(scheduler, userProgressDao, storyId);
     }
     
     // Vocabulary operations
@@ -148,12 +355,12 @@ public class StoryRepository {
         return vocabularyDao.getAllVocabulary();
     }
     
-    public void insert(VocabularyItem vocabularyItem) {
-        new InsertVocabularyAsyncTask(vocabularyDao).execute(vocabularyItem);
+    public Future<?> insert(VocabularyItem vocabularyItem) {
+        return scheduler.write(() -> vocabularyDao.insert(vocabularyItem));
     }
     
-    public void insertVocabularyItem(VocabularyItem vocabularyItem) {
-        new InsertVocabularyAsyncTask(vocabularyDao).execute(vocabularyItem);
+    public Future<?> insertVocabularyItem(VocabularyItem vocabularyItem) {
+        return insert(vocabularyItem);
     }
     
     public VocabularyItem getVocabularyByWord(String word) {
@@ -164,8 +371,12 @@ public class StoryRepository {
         }
     }
     
-    // Import story with audio
-    public void importCustomStory(
+    /**
+     * Import story with audio. Without a timing file the sentences are fitted to the audio,
+     * by alignment if requested and otherwise at its longest pauses.
+     * @return A handle to cancel the import, e.g. when the import screen is left
+     */
+    public ImportHandle importCustomStory(
             String title,
             String author,
             String description,
@@ -176,174 +387,37 @@ public class StoryRepository {
             String folderId,
             ImportStoryCallback callback) {
         
-        new ImportStoryAsyncTask(application, storyDao, storyContentDao, userProgressDao, useAiAlignment, callback)
-                .execute(new ImportStoryParams(title, author, description, textUri, audioUri, timingUri, useAiAlignment, folderId));
-    }
-    
-    // AsyncTask classes for database operations
-    private static class InsertStoryAsyncTask extends AsyncTask<Story, Void, Void> {
-        private StoryDao storyDao;
-        
-        InsertStoryAsyncTask(StoryDao storyDao) {
-            this.storyDao = storyDao;
-        }
-        
-        @Override
-        protected Void doInBackground(Story... stories) {
-            storyDao.insert(stories[0]);
-            return null;
-        }
-    }
-    
-    private static class UpdateStoryAsyncTask extends AsyncTask<Story, Void, Void> {
-        private StoryDao storyDao;
-        
-        UpdateStoryAsyncTask(StoryDao storyDao) {
-            this.storyDao = storyDao;
-        }
-        
-        @Override
-        protected Void doInBackground(Story... stories) {
-            storyDao.update(stories[0]);
-            return null;
-        }
-    }
-    
-    private static class DeleteStoryAsyncTask extends AsyncTask<Story, Void, Void> {
-        private StoryDao storyDao;
-        private StoryContentDao storyContentDao;
-        private UserProgressDao userProgressDao;
-        
-        DeleteStoryAsyncTask(StoryDao storyDao, StoryContentDao storyContentDao, UserProgressDao userProgressDao) {
-            this.storyDao = storyDao;
-            this.storyContentDao = storyContentDao;
-            this.userProgressDao = userProgressDao;
-        }
-        
-        @Override
-        protected Void doInBackground(Story... stories) {
-            String storyId = stories[0].getId();
-            storyDao.delete(stories[0]);
-            storyContentDao.deleteByStoryId(storyId);
-            userProgressDao.deleteByStoryId(storyId);
-            return null;
-        }
+        ImportStoryAsyncTask task = new ImportStoryAsyncTask(application, scheduler, storyDao, storyContentDao,
+                userProgressDao, segmentTokensDao, storySegmentDao, useAiAlignment, callback);
+        task.execute(new ImportStoryParams(title, author, description, textUri, audioUri, timingUri, useAiAlignment, folderId));
+        return task;
     }
     
-    private static class UpdateLastOpenedAsyncTask extends AsyncTask<String, Void, Void> {
-        private StoryDao storyDao;
-        
-        UpdateLastOpenedAsyncTask(StoryDao storyDao) {
-            this.storyDao = storyDao;
-        }
-        
-        @Override
-        protected Void doInBackground(String... params) {
-            storyDao.updateLastOpened(params[0], params[1]);
-            return null;
-        }
-    }
-    
-    private static class InsertStoryContentAsyncTask extends AsyncTask<StoryContent, Void, Void> {
-        private StoryContentDao storyContentDao;
-        
-        InsertStoryContentAsyncTask(StoryContentDao storyContentDao) {
-            this.storyContentDao = storyContentDao;
-        }
-        
-        @Override
-        protected Void doInBackground(StoryContent... storyContents) {
-            storyContentDao.insert(storyContents[0]);
-            return null;
-        }
-    }
-    
-    private static class UpdateStoryContentAsyncTask extends AsyncTask<StoryContent, Void, Void> {
-        private StoryContentDao storyContentDao;
-        
-        UpdateStoryContentAsyncTask(StoryContentDao storyContentDao) {
-            this.storyContentDao = storyContentDao;
-        }
-        
-        @Override
-        protected Void doInBackground(StoryContent... storyContents) {
-            storyContentDao.update(storyContents[0]);
-            return null;
-        }
-    }
-    
-    private static class InsertUserProgressAsyncTask extends AsyncTask<UserProgress, Void, Void> {
-        private UserProgressDao userProgressDao;
-        
-        InsertUserProgressAsyncTask(UserProgressDao userProgressDao) {
-            this.userProgressDao = userProgressDao;
-        }
-        
-        @Override
-        protected Void doInBackground(UserProgress... userProgresses) {
-            userProgressDao.insert(userProgresses[0]);
-            return null;
-        }
-    }
-    
-    private static class UpdateUserProgressAsyncTask extends AsyncTask<UserProgress, Void, Void> {
-        private UserProgressDao userProgressDao;
-        
-        UpdateUserProgressAsyncTask(UserProgressDao userProgressDao) {
-            this.userProgressDao = userProgressDao;
-        }
-        
-        @Override
-        protected Void doInBackground(UserProgress... userProgresses) {
-            userProgressDao.update(userProgresses[0]);
-            return null;
-        }
-    }
-    
-    private static class UpdateAudioPositionAsyncTask extends AsyncTask<Object, Void, Void> {
-        private UserProgressDao userProgressDao;
-        
-        UpdateAudioPositionAsyncTask(UserProgressDao userProgressDao) {
-            this.userProgressDao = userProgressDao;
-        }
-        
-        @Override
-        protected Void doInBackground(Object... params) {
-            String storyId = (String) params[0];
-            long position = (long) params[1];
-            userProgressDao.updateAudioPosition(storyId, position);
-            return null;
-        }
-    }
-    
-    private static class InsertVocabularyAsyncTask extends AsyncTask<VocabularyItem, Void, Void> {
-        private VocabularyDao vocabularyDao;
-        
-        InsertVocabularyAsyncTask(VocabularyDao vocabularyDao) {
-            this.vocabularyDao = vocabularyDao;
-        }
-        
-        @Override
-        protected Void doInBackground(VocabularyItem... vocabularyItems) {
-            vocabularyDao.insert(vocabularyItems[0]);
-            return null;
-        }
-    }
-    
-    private static class ImportStoryAsyncTask extends AsyncTask<ImportStoryParams, Void, String> {
+    // AsyncTask classes for long-running import and export operations
+    private static class ImportStoryAsyncTask extends AsyncTask<ImportStoryParams, String, String>
+            implements ImportHandle {
         private Context context;
+        private DatabaseScheduler scheduler;
         private StoryDao storyDao;
         private StoryContentDao storyContentDao;
         private UserProgressDao userProgressDao;
+        private SegmentTokensDao segmentTokensDao;
+        private StorySegmentDao storySegmentDao;
         private ImportStoryCallback callback;
         private boolean useAiAlignment;
+        private volatile SpeechAlignmentService alignmentService;
         
-        ImportStoryAsyncTask(Context context, StoryDao storyDao, StoryContentDao storyContentDao,
-                             UserProgressDao userProgressDao, boolean useAiAlignment, ImportStoryCallback callback) {
+        ImportStoryAsyncTask(Context context, DatabaseScheduler scheduler, StoryDao storyDao,
+                             StoryContentDao storyContentDao, UserProgressDao userProgressDao,
+                             SegmentTokensDao segmentTokensDao, StorySegmentDao storySegmentDao,
+                             boolean useAiAlignment, ImportStoryCallback callback) {
             this.context = context;
+            this.scheduler = scheduler;
             this.storyDao = storyDao;
             this.storyContentDao = storyContentDao;
             this.userProgressDao = userProgressDao;
+            this.segmentTokensDao = segmentTokensDao;
+            this.storySegmentDao = storySegmentDao;
             this.useAiAlignment = useAiAlignment;
             this.callback = callback;
         }
@@ -385,70 +459,90 @@ public class StoryRepository {
                 
                 // Process segments based on settings
                 List<AudioSegment> segments = null;
+                boolean peaksWritten = false;
                 
                 // First check if there's a timing file
                 if (timingUri != null) {
-                    String timingContent = FileUtils.readTextFromUri(context, timingUri);
-                    segments = AudioUtils.parseTimingFile(timingContent);
+                    try (InputStream timingStream = context.getContentResolver().openInputStream(timingUri);
+                         Reader timingReader = new InputStreamReader(timingStream, StandardCharsets.UTF_8)) {
+                        segments = AudioUtils.parseTimingFile(timingReader);
+                    }
                 } 
-                // If AI alignment is requested, use it (would be done asynchronously in a real app)
+                // If AI alignment is requested, fit the sentences to the pauses in the audio
                 else if (useAiAlignment) {
-                    // In a real implementation, this would call SpeechAlignmentService
-                    // and wait for the alignment to complete
-                    // For demo purposes, we'll use the automatic segmentation
+                    publishProgress("Aligning text with audio...");
                     
-                    // This is the real AI-based alignment implementation
-                    if (callback != null) {
-                        callback.onProgressUpdate("Using AI to align text with audio...");
+                    List<String> sentences = JapaneseTextUtils.splitIntoSentences(textContent);
+                    alignmentService = new SpeechAlignmentService(context);
+                    if (isCancelled()) {
+                        alignmentService.cancel();
                     }
-                    
-                    // Use auto-generated segments as a fallback
-                    MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+                    PeakIndex.Writer peakWriter = null;
                     try {
-                        retriever.setDataSource(context, audioUri);
-                        String durationStr = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
-                        long audioDuration = Long.parseLong(durationStr);
-                        
-                        // First use auto-generated segments (as a fallback)
-                        segments = AudioUtils.autoGenerateSegments(textContent, audioDuration);
-                        
-                        // Then try to improve with speech alignment
-                        // We can't run SpeechRecognizer directly here since we're in a background thread
-                        // Let's use our placeholder implementation for now
-                        /*
-                        final SpeechAlignmentService alignmentService = new SpeechAlignmentService(context);
-                        try {
-                            alignmentService.alignTextWithAudio(audioUri, textContent, 
-                                new SpeechAlignmentService.AlignmentCallback() {
-                                    @Override
-                                    public void onAlignmentComplete(List<AudioSegment> alignedSegments) {
-                                        // Update segments with aligned results
-                                        // This would need to update the database after alignment completes
-                                    }
+                        // Write the waveform peaks from the same decode
+                        peakWriter = new PeakIndex.Writer(audioFile);
+                        segments = alignmentService.align(Uri.fromFile(audioFile), sentences,
+                                new SpeechAlignmentService.ProgressListener() {
+                                    private int lastQuarter;
                                     
                                     @Override
-                                    public void onAlignmentProgress(int percentComplete) {
-                                        if (callback != null) {
-                                            callback.onProgressUpdate("Aligning: " + percentComplete + "%");
+                                    public void onProgress(int percentComplete) {
+                                        // Only report every quarter so the screen isn't flooded
+                                        if (percentComplete / 25 > lastQuarter) {
+                                            lastQuarter = percentComplete / 25;
+                                            publishProgress("Aligning: " + percentComplete + "%");
                                         }
                                     }
-                                    
-                                    @Override
-                                    public void onAlignmentFailed(String errorMessage) {
-                                        Log.e(TAG, "Alignment failed: " + errorMessage);
-                                    }
-                                });
-                        } catch (IOException e) {
-                            Log.e(TAG, "Error in speech alignment", e);
+                                }, peakWriter);
+                        peakWriter.finish();
+                        peaksWritten = true;
+                    } catch (InterruptedIOException e) {
+                        // Cancelled; checked below
+                    } catch (IOException e) {
+                        Log.e(TAG, "Error in speech alignment", e);
+                        segments = autoGenerateSegments(context, audioUri, textContent);
+                    } finally {
+                        if (peakWriter != null) {
+                            peakWriter.close();
                         }
-                        */
-                    } catch (Exception e) {
-                        Log.e(TAG, "Error getting audio duration", e);
+                        alignmentService.release();
+                    }
+                }
+                // Otherwise place the sentence boundaries at the longest pauses in the audio
+                else {
+                    publishProgress("Finding pauses in the audio...");
+                    
+                    List<String> sentences = JapaneseTextUtils.splitIntoSentences(textContent);
+                    PeakIndex.Writer peakWriter = null;
+                    try {
+                        // Write the waveform peaks from the same decode
+                        peakWriter = new PeakIndex.Writer(audioFile);
+                        segments = SegmentBoundarySuggester.suggest(context, Uri.fromFile(audioFile),
+                                sentences, cancelCheck, peakWriter);
+                        peakWriter.finish();
+                        peaksWritten = true;
+                    } catch (InterruptedIOException e) {
+                        // Cancelled; checked below
+                    } catch (IOException e) {
+                        Log.w(TAG, "Could not find pauses in the audio, spreading sentences evenly", e);
+                        segments = autoGenerateSegments(context, audioUri, textContent);
                     } finally {
-                        retriever.release();
+                        if (peakWriter != null) {
+                            peakWriter.close();
+                        }
                     }
                 }
                 
+                if (isCancelled()) {
+                    audioFile.delete();
+                    PeakIndex.fileFor(audioFile).delete();
+                    return null;
+                }
+                
+                if (!peaksWritten) {
+                    writePeaks(audioFile);
+                }
+                
                 // Create story object
                 Story story = new Story(
                         storyId,
@@ -479,92 +573,121 @@ public class StoryRepository {
                 // Create user progress
                 UserProgress userProgress = new UserProgress(storyId);
                 
-                // Save to database
-                storyDao.insert(story);
-                storyContentDao.insert(storyContent);
-                userProgressDao.insert(userProgress);
+                // Tokenize every segment once so the reader never has to
+                List<SegmentTokens> segmentTokens = TokenCodec.encodeSegments(storyId, storyContent.getSegments());
+                
+                // Save to database in a single transaction
+                scheduler.write(() -> {
+                    storyDao.insert(story);
+                    storyContentDao.insert(storyContent);
+                    replaceSegments(scheduler, storySegmentDao, storyContent);
+                    userProgressDao.insert(userProgress);
+                    segmentTokensDao.insertAll(segmentTokens);
+                }).get();
                 
                 return storyId;
-            } catch (IOException e) {
+            } catch (IOException | ExecutionException e) {
                 Log.e(TAG, "Error importing story", e);
                 return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
             }
         }
         
-        @Override
-        protected void onPostExecute(String storyId) {
-            if (callback != null) {
-                if (storyId != null) {
-                    callback.onSuccess(storyId);
-                } else {
-                    callback.onError("Failed to import story");
-                }
+        /**
+         * Stops a decode once the import is cancelled
+         */
+        private final PcmDecoder.PcmConsumer cancelCheck = new PcmDecoder.PcmConsumer() {
+            @Override
+            public void onFormat(int sampleRate) throws IOException {
+                checkCancelled();
+            }
+            
+            @Override
+            public void onFrame(float[] samples, int count) throws IOException {
+                checkCancelled();
+            }
+        };
+        
+        private void checkCancelled() throws InterruptedIOException {
+            if (isCancelled()) {
+                throw new InterruptedIOException("Import cancelled");
             }
         }
-    }
-    
-    public interface ImportStoryCallback {
-        void onSuccess(String storyId);
-        void onError(String errorMessage);
-        void onProgressUpdate(String status);
-    }
-    
-    // Additional AsyncTask classes for folder and ordering operations
-    
-    private static class MoveStoryToFolderAsyncTask extends AsyncTask<StoryFolderParams, Void, Void> {
-        private StoryDao storyDao;
         
-        MoveStoryToFolderAsyncTask(StoryDao storyDao) {
-            this.storyDao = storyDao;
+        /**
+         * Write the waveform peaks of the audio for the timestamp editor. The story is usable
+         * without them, so failures are only logged.
+         */
+        private void writePeaks(File audioFile) {
+            try {
+                PeakIndex.generate(context, audioFile);
+            } catch (IOException e) {
+                Log.w(TAG, "Error writing waveform peaks", e);
+            }
+        }
+        
+        /**
+         * Spread the sentences evenly over the audio, for when the audio cannot be analyzed
+         */
+        private static List<AudioSegment> autoGenerateSegments(Context context, Uri audioUri, String textContent)
+                throws IOException {
+            MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+            try {
+                retriever.setDataSource(context, audioUri);
+                String durationStr = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+                return AudioUtils.autoGenerateSegments(textContent, Long.parseLong(durationStr));
+            } catch (Exception e) {
+                Log.e(TAG, "Error getting audio duration", e);
+                return null;
+            } finally {
+                retriever.release();
+            }
         }
         
         @Override
-        protected Void doInBackground(StoryFolderParams... params) {
-            if (params.length > 0) {
-                StoryFolderParams param = params[0];
-                storyDao.moveStoryToFolder(param.storyId, param.folderId);
+        public void cancel() {
+            cancel(false);
+            SpeechAlignmentService service = alignmentService;
+            if (service != null) {
+                service.cancel();
             }
-            return null;
         }
-    }
-    
-    private static class MoveAllStoriesAsyncTask extends AsyncTask<FolderMoveParams, Void, Void> {
-        private StoryDao storyDao;
         
-        MoveAllStoriesAsyncTask(StoryDao storyDao) {
-            this.storyDao = storyDao;
+        @Override
+        protected void onProgressUpdate(String... values) {
+            if (callback != null) {
+                callback.onProgressUpdate(values[0]);
+            }
         }
         
         @Override
-        protected Void doInBackground(FolderMoveParams... params) {
-            if (params.length > 0) {
-                FolderMoveParams param = params[0];
-                storyDao.moveAllStories(param.fromFolderId, param.toFolderId);
+        protected void onPostExecute(String storyId) {
+            if (callback != null) {
+                if (storyId != null) {
+                    callback.onSuccess(storyId);
+                } else {
+                    callback.onError("Failed to import story");
+                }
             }
-            return null;
         }
     }
     
-    // Helper class for story-folder parameters
-    private static class StoryFolderParams {
-        String storyId;
-        String folderId;
-        
-        StoryFolderParams(String storyId, String folderId) {
-            this.storyId = storyId;
-            this.folderId = folderId;
-        }
+    public interface ImportStoryCallback {
+        void onSuccess(String storyId);
+        void onError(String errorMessage);
+        void onProgressUpdate(String status);
     }
     
-    // Helper class for folder move parameters
-    private static class FolderMoveParams {
-        String fromFolderId;
-        String toFolderId;
-        
-        FolderMoveParams(String fromFolderId, String toFolderId) {
-            this.fromFolderId = fromFolderId;
-            this.toFolderId = toFolderId;
-        }
+    /**
+     * Handle to a running import
+     */
+    public interface ImportHandle {
+        /**
+         * Stop the import; the callback is not called once cancelled
+         */
+        void cancel();
     }
     
     // Helper class for import story parameters
@@ -599,7 +722,7 @@ public class StoryRepository {
      * @param callback Callback to notify about export results
      */
     public void exportAllStories(Uri outputUri, ExportImportCallback callback) {
-        new ExportAllStoriesAsyncTask(application, storyDao, storyContentDao, callback).execute(outputUri);
+        new ExportAllStoriesAsyncTask(application, storyDao, storyContentDao, storySegmentDao, callback).execute(outputUri);
     }
     
     /**
@@ -608,7 +731,8 @@ public class StoryRepository {
      * @param callback Callback to notify about import results
      */
     public void importAllStories(Uri inputUri, ExportImportCallback callback) {
-        new ImportAllStoriesAsyncTask(application, storyDao, storyContentDao, userProgressDao, callback).execute(inputUri);
+        new ImportAllStoriesAsyncTask(application, scheduler, storyDao, storyContentDao, userProgressDao,
+                storySegmentDao, callback).execute(inputUri);
     }
     
     /**
@@ -627,14 +751,17 @@ public class StoryRepository {
         private Context context;
         private StoryDao storyDao;
         private StoryContentDao storyContentDao;
+        private StorySegmentDao storySegmentDao;
         private ExportImportCallback callback;
         private String errorMessage;
         private int storyCount;
         
-        ExportAllStoriesAsyncTask(Context context, StoryDao storyDao, StoryContentDao storyContentDao, ExportImportCallback callback) {
+        ExportAllStoriesAsyncTask(Context context, StoryDao storyDao, StoryContentDao storyContentDao,
+                                  StorySegmentDao storySegmentDao, ExportImportCallback callback) {
             this.context = context;
             this.storyDao = storyDao;
             this.storyContentDao = storyContentDao;
+            this.storySegmentDao = storySegmentDao;
             this.callback = callback;
         }
         
@@ -677,7 +804,7 @@ public class StoryRepository {
                 publishProgress("Retrieving story content...");
                 Map<String, StoryContent> contentMap = new HashMap<>();
                 for (Story story : stories) {
-                    StoryContent content = storyContentDao.getContentForStorySync(story.getId());
+                    StoryContent content = loadContentSync(storyContentDao, storySegmentDao, story.getId());
                     if (content != null) {
                         contentMap.put(story.getId(), content);
                     }
@@ -717,19 +844,24 @@ public class StoryRepository {
      */
     private static class ImportAllStoriesAsyncTask extends AsyncTask<Uri, String, Boolean> {
         private Context context;
+        private DatabaseScheduler scheduler;
         private StoryDao storyDao;
         private StoryContentDao storyContentDao;
         private UserProgressDao userProgressDao;
+        private StorySegmentDao storySegmentDao;
         private ExportImportCallback callback;
         private String resultMessage;
         private String errorMessage;
         
-        ImportAllStoriesAsyncTask(Context context, StoryDao storyDao, StoryContentDao storyContentDao, 
-                                 UserProgressDao userProgressDao, ExportImportCallback callback) {
+        ImportAllStoriesAsyncTask(Context context, DatabaseScheduler scheduler, StoryDao storyDao,
+                                 StoryContentDao storyContentDao, UserProgressDao userProgressDao,
+                                 StorySegmentDao storySegmentDao, ExportImportCallback callback) {
             this.context = context;
+            this.scheduler = scheduler;
             this.storyDao = storyDao;
             this.storyContentDao = storyContentDao;
             this.userProgressDao = userProgressDao;
+            this.storySegmentDao = storySegmentDao;
             this.callback = callback;
         }
         
@@ -778,18 +910,21 @@ public class StoryRepository {
                     progresses.add(new UserProgress(story.getId()));
                 }
                 
-                // Insert all the data into the database
-                for (Story story : stories) {
-                    storyDao.insert(story);
-                }
-                
-                for (StoryContent content : contents) {
-                    storyContentDao.insert(content);
-                }
-                
-                for (UserProgress progress : progresses) {
-                    userProgressDao.insert(progress);
-                }
+                // Insert all the data into the database in a single transaction
+                scheduler.write(() -> {
+                    for (Story story : stories) {
+                        storyDao.insert(story);
+                    }
+                    
+                    for (StoryContent content : contents) {
+                        storyContentDao.insert(content);
+                        replaceSegments(scheduler, storySegmentDao, content);
+                    }
+                    
+                    for (UserProgress progress : progresses) {
+                        userProgressDao.insert(progress);
+                    }
+                }).get();
                 
                 StringBuilder message = new StringBuilder();
                 message.append("Import complete: ");
@@ -821,4 +956,38 @@ public class StoryRepository {
             }
         }
     }
-}
\ No newline at end of file
+    
+    /**
+     * Combines a story's content row with its segment rows, emitting once both have loaded
+     * and again whenever either changes
+     */
+    private static class StoryContentLiveData extends MediatorLiveData<StoryContent> {
+        private StoryContent content;
+        private List<StorySegment> segments;
+        private boolean contentLoaded;
+        private boolean segmentsLoaded;
+        
+        StoryContentLiveData(LiveData<StoryContent> contentSource, LiveData<List<StorySegment>> segmentsSource) {
+            addSource(contentSource, value -> {
+                content = value;
+                contentLoaded = true;
+                publish();
+            });
+            addSource(segmentsSource, value -> {
+                segments = value;
+                segmentsLoaded = true;
+                publish();
+            });
+        }
+        
+        private void publish() {
+            if (!contentLoaded || !segmentsLoaded) {
+                return;
+            }
+            if (content != null && segments != null) {
+                content.setSegments(StorySegment.toAudioSegments(segments));
+            }
+            setValue(content);
+        }
+    }
+}
@@ -3,17 +3,15 @@ package com.nihonreader.app.utils;
 import android.util.Log;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import com.google.gson.JsonSyntaxException;
 import com.nihonreader.app.models.AudioSegment;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Utility class for audio-related operations
@@ -21,8 +19,10 @@ import java.util.regex.Pattern;
 public class AudioUtils {
     
     private static final String TAG = "AudioUtils";
-    // Updated pattern to handle flexible digit counts and any text format (including hash symbols)
-    private static final Pattern TIMING_PATTERN = Pattern.compile("\\[(\\d{1,2}):(\\d{1,2})\\.(\\d{1,2})\\]\\s*(.*)");
+    // Characters looked at to tell JSON timing files from text ones
+    private static final int SNIFF_CHARS = 256;
+    // Length given to a segment with no end time and no following start time
+    static final long DEFAULT_LAST_SEGMENT_MS = 5000;
     
     /**
      * Parse a file containing timestamps and corresponding text segments
@@ -32,297 +32,251 @@ public class AudioUtils {
      * @return List of AudioSegment objects
      */
     public static List<AudioSegment> parseTimingFile(String content) {
-        List<AudioSegment> segments = new ArrayList<>();
-        
         if (content == null || content.isEmpty()) {
-            return segments;
+            return new ArrayList<>();
         }
         
-        // First attempt to determine if content is JSON format
-        boolean isLikelyJson = isLikelyJsonFormat(content);
+        try {
+            return parseTimingFile(new StringReader(content));
+        } catch (IOException e) {
+            // Reading from a string does not fail
+            Log.e(TAG, "Error reading timing content", e);
+            return new ArrayList<>();
+        }
+    }
+    
+    /**
+     * Parse a timing file as it is read, in either the text or the JSON format.
+     * Text lines are parsed in a single pass without regular expressions; start times are
+     * collected into a primitive array and the end times filled in afterwards.
+     * @param reader The timing file; not closed by this method
+     * @return List of AudioSegment objects
+     */
+    public static List<AudioSegment> parseTimingFile(Reader reader) throws IOException {
+        long traceToken = Tracer.ENABLED ? Tracer.begin(Tracer.AUDIO) : 0;
+        BufferedReader in = reader instanceof BufferedReader
+                ? (BufferedReader) reader : new BufferedReader(reader);
         
-        if (isLikelyJson) {
-            try {
-                List<AudioSegment> jsonSegments = parseJsonTimingFile(content);
-                // If we successfully parsed JSON segments, return them
-                if (!jsonSegments.isEmpty()) {
-                    return jsonSegments;
-                }
-                // Otherwise fall through to text format parsing
-            } catch (JsonSyntaxException e) {
-                Log.e(TAG, "Failed to parse JSON timing file", e);
-                // Fall back to text format parsing if JSON parsing fails
+        // Decide the format from the first few characters only
+        char[] prefix = new char[SNIFF_CHARS];
+        in.mark(SNIFF_CHARS);
+        int prefixLength = 0;
+        int read;
+        while (prefixLength < SNIFF_CHARS
+                && (read = in.read(prefix, prefixLength, SNIFF_CHARS - prefixLength)) > 0) {
+            prefixLength += read;
+        }
+        in.reset();
+        
+        if (startsWithObject(prefix, prefixLength)) {
+            // Cannot be the text format, so stream the JSON straight from the reader
+            List<AudioSegment> jsonSegments = new JsonTimingReader(in).read();
+            if (Tracer.ENABLED && Tracer.isEnabled(Tracer.AUDIO)) {
+                Tracer.end(Tracer.AUDIO, TAG, "Parsing JSON timing file", traceToken);
             }
+            return jsonSegments;
         }
         
-        // Parse as text format
-        String[] lines = content.split("\n");
+        if (isLikelyJsonFormat(prefix, prefixLength)) {
+            // Keep the content in case it turns out to be text after all
+            String content = readAll(in);
+            List<AudioSegment> jsonSegments = new JsonTimingReader(new StringReader(content)).read();
+            // If we successfully parsed JSON segments, return them
+            if (!jsonSegments.isEmpty()) {
+                if (Tracer.ENABLED && Tracer.isEnabled(Tracer.AUDIO)) {
+                    Tracer.end(Tracer.AUDIO, TAG, "Parsing JSON timing file", traceToken);
+                }
+                return jsonSegments;
+            }
+            // Otherwise fall back to text format parsing
+            in = new BufferedReader(new StringReader(content));
+        }
         
-        for (int i = 0; i < lines.length; i++) {
-            String line = lines[i].trim();
-            if (line.isEmpty()) {
+        long[] startTimes = new long[256];
+        List<String> texts = new ArrayList<>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            int end = line.length();
+            while (end > 0 && line.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            int open = 0;
+            while (open < end && line.charAt(open) <= ' ') {
+                open++;
+            }
+            if (open == end || line.charAt(open) != '[') {
                 continue;
             }
             
-            Matcher matcher = TIMING_PATTERN.matcher(line);
-            if (matcher.matches()) {
-                int minutes = Integer.parseInt(matcher.group(1));
-                int seconds = Integer.parseInt(matcher.group(2));
-                int centiseconds = Integer.parseInt(matcher.group(3));
-                // For single-digit centiseconds, multiply by 100 instead of 10
-                int multiplier = matcher.group(3).length() == 1 ? 100 : 10;
-                long startTime = (minutes * 60 + seconds) * 1000 + centiseconds * multiplier;
-                String text = matcher.group(4);
-                
-                // Calculate end time (start time of next segment or end of audio)
-                long endTime;
-                if (i < lines.length - 1) {
-                    Matcher nextMatcher = TIMING_PATTERN.matcher(lines[i + 1].trim());
-                    if (nextMatcher.matches()) {
-                        int nextMinutes = Integer.parseInt(nextMatcher.group(1));
-                        int nextSeconds = Integer.parseInt(nextMatcher.group(2));
-                        int nextCentiseconds = Integer.parseInt(nextMatcher.group(3));
-                        // For single-digit centiseconds, multiply by 100 instead of 10
-                        int nextMultiplier = nextMatcher.group(3).length() == 1 ? 100 : 10;
-                        endTime = (nextMinutes * 60 + nextSeconds) * 1000 + nextCentiseconds * nextMultiplier;
-                    } else {
-                        endTime = startTime + 5000; // Default 5 seconds if can't determine
-                    }
-                } else {
-                    endTime = startTime + 5000; // Default 5 seconds for last segment
-                }
-                
-                segments.add(new AudioSegment(startTime, endTime, text));
+            int close = line.indexOf(']', open + 1);
+            if (close < 0 || close >= end) {
+                continue;
+            }
+            long startTime = parseClock(line, open + 1, close);
+            if (startTime < 0) {
+                continue;
+            }
+            
+            int textStart = close + 1;
+            while (textStart < end && line.charAt(textStart) <= ' ') {
+                textStart++;
             }
+            
+            int count = texts.size();
+            if (count == startTimes.length) {
+                startTimes = Arrays.copyOf(startTimes, count * 2);
+            }
+            startTimes[count] = startTime;
+            texts.add(line.substring(textStart, end));
+        }
+        
+        // Each segment ends where the next one starts
+        int count = texts.size();
+        List<AudioSegment> segments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long endTime = i + 1 < count
+                    ? startTimes[i + 1] : startTimes[i] + DEFAULT_LAST_SEGMENT_MS;
+            segments.add(new AudioSegment(startTimes[i], endTime, texts.get(i)));
         }
         
+        if (Tracer.ENABLED && Tracer.isEnabled(Tracer.AUDIO)) {
+            Tracer.end(Tracer.AUDIO, TAG, "Parsing " + segments.size() + " timed lines", traceToken);
+        }
         return segments;
     }
     
     /**
-     * Determines if the content is likely to be in JSON format
-     * Uses more robust heuristics than just checking the first character
-     * @param content The content to analyze
-     * @return True if the content is likely JSON, false otherwise
+     * Parse a clock time in the form m:s.c, where each part has one or two digits
+     * A single digit of hundredths counts as tenths, so 0:01.5 is 1500 ms
+     * @return The time in milliseconds, or -1 if the characters are not a clock time
      */
-    private static boolean isLikelyJsonFormat(String content) {
-        // Trim whitespace
-        String trimmed = content.trim();
+    private static long parseClock(String text, int from, int to) {
+        int position = from;
+        int minutes = 0;
+        int digits = 0;
+        while (position < to && digits < 3 && isDigit(text.charAt(position))) {
+            minutes = minutes * 10 + (text.charAt(position++) - '0');
+            digits++;
+        }
+        if (digits == 0 || digits > 2 || position >= to || text.charAt(position++) != ':') {
+            return -1;
+        }
         
-        // If it starts with a curly brace, it's likely JSON
-        if (trimmed.startsWith("{")) {
-            return true;
+        int seconds = 0;
+        digits = 0;
+        while (position < to && digits < 3 && isDigit(text.charAt(position))) {
+            seconds = seconds * 10 + (text.charAt(position++) - '0');
+            digits++;
+        }
+        if (digits == 0 || digits > 2 || position >= to || text.charAt(position++) != '.') {
+            return -1;
         }
         
-        // If it starts with a square bracket, we need additional checks
-        if (trimmed.startsWith("[")) {
-            // Check if the second character is a curly brace or another square bracket
-            // which would indicate a JSON array
-            if (trimmed.length() > 1 && (trimmed.charAt(1) == '{' || trimmed.charAt(1) == '[')) {
-                return true;
-            }
-            
-            // Check if the content contains JSON-like structures
-            boolean containsJsonStructures = 
-                trimmed.contains("\"start\"") ||
-                trimmed.contains("\"text\"") || 
-                trimmed.contains("\"end\"");
-            
-            if (containsJsonStructures) {
-                return true;
-            }
-
-            // If first line starts with [xx:xx.xx] pattern, it's likely text format
-            String firstLine = trimmed.split("\\n")[0].trim();
-            if (TIMING_PATTERN.matcher(firstLine).matches()) {
-                return false;
-            }
-
-            // Check for numeric arrays which could be timestamps in JSON
-            if (trimmed.matches("\\[\\s*\\d+.*")) {
-                return true;
-            }
+        int fraction = 0;
+        digits = 0;
+        while (position < to && digits < 3 && isDigit(text.charAt(position))) {
+            fraction = fraction * 10 + (text.charAt(position++) - '0');
+            digits++;
+        }
+        if (digits == 0 || digits > 2 || position != to) {
+            return -1;
         }
         
-        // Try to parse a sample of the content as JSON
-        try {
-            // Get a small sample (first 100 chars or less) to avoid performance issues with large files
-            String sample = trimmed.substring(0, Math.min(trimmed.length(), 100));
-            JsonParser.parseString(sample);
-            return true;
-        } catch (JsonSyntaxException e) {
-            // If parsing fails, check some additional JSON indicators
-            boolean hasJsonIndicators = 
-                trimmed.contains("\"segments\"") || 
-                trimmed.contains("\"startTime\"") || 
-                trimmed.contains("\"endTime\"") || 
-                (trimmed.contains("{") && trimmed.contains("}")) || 
-                (trimmed.contains("[") && trimmed.contains("]"));
-            
-            return hasJsonIndicators;
+        int multiplier = digits == 1 ? 100 : 10;
+        return (minutes * 60 + seconds) * 1000L + fraction * multiplier;
+    }
+    
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+    
+    /**
+     * Whether a timing file opens with a JSON object or an array of them
+     */
+    private static boolean startsWithObject(char[] prefix, int length) {
+        int position = skipWhitespace(prefix, 0, length);
+        if (position < length && prefix[position] == '[') {
+            position = skipWhitespace(prefix, position + 1, length);
         }
+        return position < length && prefix[position] == '{';
     }
     
     /**
-     * Parse a JSON timing file containing segments with start/end times and text
-     * Supports both array format and object format with segments array
-     * @param jsonContent The JSON content string
-     * @return List of AudioSegment objects
+     * Determines if a timing file is likely to be in JSON format from its first characters
+     * @param prefix The start of the file
+     * @param length Number of characters in the prefix
+     * @return True if the content is likely JSON, false otherwise
      */
-    private static List<AudioSegment> parseJsonTimingFile(String jsonContent) {
-        List<AudioSegment> segments = new ArrayList<>();
+    private static boolean isLikelyJsonFormat(char[] prefix, int length) {
+        int position = skipWhitespace(prefix, 0, length);
+        if (position == length) {
+            return false;
+        }
         
-        try {
-            JsonElement jsonElement = JsonParser.parseString(jsonContent);
-            JsonArray segmentsArray;
-            
-            // Handle both array and object format
-            if (jsonElement.isJsonArray()) {
-                segmentsArray = jsonElement.getAsJsonArray();
-            } else if (jsonElement.isJsonObject()) {
-                JsonObject jsonObject = jsonElement.getAsJsonObject();
-                // Look for a segments array in the JSON object
-                if (jsonObject.has("segments")) {
-                    segmentsArray = jsonObject.getAsJsonArray("segments");
-                } else {
-                    // Try to find any array property
-                    segmentsArray = null;
-                    for (String key : jsonObject.keySet()) {
-                        if (jsonObject.get(key).isJsonArray()) {
-                            segmentsArray = jsonObject.getAsJsonArray(key);
-                            break;
-                        }
-                    }
-                    
-                    if (segmentsArray == null) {
-                        // No array found, return empty list
-                        Log.e(TAG, "No segments array found in JSON");
-                        return segments;
-                    }
-                }
-            } else {
-                // Invalid JSON format
-                Log.e(TAG, "Invalid JSON format: neither array nor object");
-                return segments;
-            }
-            
-            // Process each segment
-            for (int i = 0; i < segmentsArray.size(); i++) {
-                JsonObject segment = segmentsArray.get(i).getAsJsonObject();
-                
-                // Extract start time, searching for common key names
-                long startTime = -1;
-                if (segment.has("start")) {
-                    startTime = getTimeInMillis(segment.get("start"));
-                } else if (segment.has("startTime")) {
-                    startTime = getTimeInMillis(segment.get("startTime"));
-                } else if (segment.has("start_time")) {
-                    startTime = getTimeInMillis(segment.get("start_time"));
-                } else if (segment.has("from")) {
-                    startTime = getTimeInMillis(segment.get("from"));
-                }
-                
-                // Extract end time, searching for common key names
-                long endTime = -1;
-                if (segment.has("end")) {
-                    endTime = getTimeInMillis(segment.get("end"));
-                } else if (segment.has("endTime")) {
-                    endTime = getTimeInMillis(segment.get("endTime"));
-                } else if (segment.has("end_time")) {
-                    endTime = getTimeInMillis(segment.get("end_time"));
-                } else if (segment.has("to")) {
-                    endTime = getTimeInMillis(segment.get("to"));
-                }
-                
-                // If we're missing start/end time but have following segment, use its start time
-                if (i < segmentsArray.size() - 1 && endTime == -1) {
-                    JsonObject nextSegment = segmentsArray.get(i + 1).getAsJsonObject();
-                    if (nextSegment.has("start")) {
-                        endTime = getTimeInMillis(nextSegment.get("start"));
-                    } else if (nextSegment.has("startTime")) {
-                        endTime = getTimeInMillis(nextSegment.get("startTime"));
-                    } else if (nextSegment.has("start_time")) {
-                        endTime = getTimeInMillis(nextSegment.get("start_time"));
-                    } else if (nextSegment.has("from")) {
-                        endTime = getTimeInMillis(nextSegment.get("from"));
-                    }
-                }
-                
-                // Default end time if still missing
-                if (endTime == -1 && startTime != -1) {
-                    endTime = startTime + 5000; // Default 5 seconds if can't determine
-                }
-                
-                // Extract text, searching for common key names
-                String text = null;
-                if (segment.has("text")) {
-                    text = segment.get("text").getAsString();
-                } else if (segment.has("content")) {
-                    text = segment.get("content").getAsString();
-                } else if (segment.has("transcript")) {
-                    text = segment.get("transcript").getAsString();
-                } else if (segment.has("value")) {
-                    text = segment.get("value").getAsString();
-                } else {
-                    // Look for any string property
-                    for (String key : segment.keySet()) {
-                        if (segment.get(key).isJsonPrimitive() && 
-                            segment.get(key).getAsJsonPrimitive().isString()) {
-                            text = segment.get(key).getAsString();
-                            break;
-                        }
-                    }
-                }
-                
-                // Add segment if we have all required fields
-                if (startTime != -1 && endTime != -1 && text != null && !text.isEmpty()) {
-                    segments.add(new AudioSegment(startTime, endTime, text));
-                } else {
-                    Log.w(TAG, "Skipping segment missing required fields: " + segment);
-                }
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error parsing JSON timing file", e);
+        // An object is always JSON
+        if (prefix[position] == '{') {
+            return true;
+        }
+        if (prefix[position] != '[') {
+            return false;
         }
         
-        return segments;
+        // An array of objects, arrays or strings is JSON; a leading [mm:ss.cc] is text
+        int next = skipWhitespace(prefix, position + 1, length);
+        if (next == length) {
+            return false;
+        }
+        char c = prefix[next];
+        if (c == '{' || c == '[' || c == '"') {
+            return true;
+        }
+        if (!isDigit(c)) {
+            return false;
+        }
+        for (int i = position + 1; i < length; i++) {
+            if (prefix[i] == ']') {
+                return parseClock(new String(prefix, 0, length), position + 1, i) < 0;
+            }
+        }
+        return true;
+    }
+    
+    private static int skipWhitespace(char[] chars, int from, int length) {
+        int position = from;
+        // Also skip a byte order mark
+        while (position < length && (chars[position] <= ' ' || chars[position] == '\uFEFF')) {
+            position++;
+        }
+        return position;
+    }
+    
+    private static String readAll(Reader reader) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = reader.read(buffer)) > 0) {
+            builder.append(buffer, 0, read);
+        }
+        return builder.toString();
     }
     
     /**
-     * Extract time in milliseconds from a JSON element
-     * Supports numeric (milliseconds) or string (MM:SS.SS format) values
+     * Parse a time written as a string, either m:ss.cc or seconds with an optional fraction
+     * @return The time in milliseconds, or -1 if it is neither
      */
-    private static long getTimeInMillis(JsonElement element) {
-        if (element.isJsonPrimitive()) {
-            if (element.getAsJsonPrimitive().isNumber()) {
-                // Direct milliseconds value
-                return element.getAsLong();
-            } else if (element.getAsJsonPrimitive().isString()) {
-                String timeStr = element.getAsString();
-                
-                // Try to parse as MM:SS.SS format (with flexible digit count)
-                Matcher matcher = TIMING_PATTERN.matcher("[" + timeStr + "] dummy");
-                if (matcher.matches()) {
-                    int minutes = Integer.parseInt(matcher.group(1));
-                    int seconds = Integer.parseInt(matcher.group(2));
-                    int centiseconds = Integer.parseInt(matcher.group(3));
-                    // For single-digit centiseconds, multiply by 100 instead of 10
-                    int multiplier = matcher.group(3).length() == 1 ? 100 : 10;
-                    return (minutes * 60 + seconds) * 1000 + centiseconds * multiplier;
-                }
-                
-                // Try to parse as seconds with decimal
-                try {
-                    double seconds = Double.parseDouble(timeStr);
-                    return (long) (seconds * 1000);
-                } catch (NumberFormatException ignored) {
-                    // Not a valid number format
-                }
-            }
+    static long parseTimeValue(String value) {
+        long clockTime = parseClock(value, 0, value.length());
+        if (clockTime >= 0) {
+            return clockTime;
         }
         
-        // Couldn't parse the time
-        return -1;
+        try {
+            double seconds = Double.parseDouble(value);
+            return (long) (seconds * 1000);
+        } catch (NumberFormatException ignored) {
+            // Not a valid number format
+            return -1;
+        }
     }
     
     /**
@@ -0,0 +1,185 @@
+package com.nihonreader.app.utils;
+
+import com.nihonreader.app.models.JapaneseWord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Tokenizes large amounts of text in parallel for story import.
+ *
+ * A whole text is cut into chunks at safe boundaries (line breaks and 。) where no token
+ * can span the cut. The chunks are tokenized on a fork-join pool sized to the number of
+ * cores, and the word offsets are shifted back into the coordinates of the full text.
+ * The shared Kuromoji tokenizer is thread-safe, so all workers use the same instance.
+ */
+public class BulkTokenizer {
+
+    // Chunks smaller than this are not worth handing to another thread
+    private static final int MIN_CHUNK_LENGTH = 2000;
+    // Number of separate texts tokenized by one task when tokenizing a list
+    private static final int TEXTS_PER_TASK = 16;
+
+    private static ForkJoinPool pool;
+
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+        }
+        return pool;
+    }
+
+    /**
+     * Tokenize a whole text
+     * @return The words of the text, with offsets into the text, in order
+     */
+    public static List<JapaneseWord> tokenize(String text) {
+        if (text == null || text.isEmpty()) {
+            return new ArrayList<>();
+        }
+        if (text.length() < 2 * MIN_CHUNK_LENGTH) {
+            // Too short to split, so skip the pool
+            return JapaneseTextParser.parseText(text);
+        }
+
+        int[] boundaries = findChunkBoundaries(text, chunkLengthFor(text.length()));
+        return getPool().invoke(new ChunkTask(text, boundaries, 0, boundaries.length - 1));
+    }
+
+    /**
+     * Tokenize many independent texts, such as the segments of a story
+     * @return The words of each text, in the same order as the texts
+     */
+    public static List<List<JapaneseWord>> tokenizeAll(List<String> texts) {
+        @SuppressWarnings("unchecked")
+        List<JapaneseWord>[] results = new List[texts.size()];
+        getPool().invoke(new TextsTask(texts, results, 0, texts.size()));
+        return Arrays.asList(results);
+    }
+
+    private static int chunkLengthFor(int textLength) {
+        int parallelism = getPool().getParallelism();
+        // A few chunks per worker keeps the cores busy when chunk costs vary
+        return Math.max(MIN_CHUNK_LENGTH, textLength / (parallelism * 4));
+    }
+
+    /**
+     * Cut points of the text, including 0 and the text length. Each cut is placed just after
+     * the first line break or 。 at least chunkLength characters past the previous cut.
+     */
+    static int[] findChunkBoundaries(String text, int chunkLength) {
+        List<Integer> cuts = new ArrayList<>();
+        cuts.add(0);
+
+        int position = chunkLength;
+        while (position < text.length()) {
+            int cut = -1;
+            for (int i = position; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '\n' || c == '。') {
+                    cut = i + 1;
+                    break;
+                }
+            }
+            if (cut < 0 || cut >= text.length()) {
+                break;
+            }
+            cuts.add(cut);
+            position = cut + chunkLength;
+        }
+        cuts.add(text.length());
+
+        int[] boundaries = new int[cuts.size()];
+        for (int i = 0; i < boundaries.length; i++) {
+            boundaries[i] = cuts.get(i);
+        }
+        return boundaries;
+    }
+
+    /**
+     * Tokenizes the chunks between two boundary positions, splitting the range in half
+     */
+    private static class ChunkTask extends RecursiveTask<List<JapaneseWord>> {
+        private final String text;
+        private final int[] boundaries;
+        private final int fromChunk;
+        private final int toChunk;
+
+        ChunkTask(String text, int[] boundaries, int fromChunk, int toChunk) {
+            this.text = text;
+            this.boundaries = boundaries;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+        }
+
+        @Override
+        protected List<JapaneseWord> compute() {
+            if (toChunk - fromChunk <= 1) {
+                return tokenizeChunk(boundaries[fromChunk], boundaries[toChunk]);
+            }
+
+            int middle = (fromChunk + toChunk) >>> 1;
+            ChunkTask second = new ChunkTask(text, boundaries, middle, toChunk);
+            second.fork();
+            List<JapaneseWord> words = new ChunkTask(text, boundaries, fromChunk, middle).compute();
+            words.addAll(second.join());
+            return words;
+        }
+
+        private List<JapaneseWord> tokenizeChunk(int start, int end) {
+            List<JapaneseWord> chunkWords = JapaneseTextParser.parseText(text.substring(start, end));
+            if (start == 0) {
+                return chunkWords;
+            }
+
+            // Shift the offsets from the chunk back into the full text
+            List<JapaneseWord> words = new ArrayList<>(chunkWords.size());
+            for (JapaneseWord word : chunkWords) {
+                words.add(new JapaneseWord(
+                        word.getSurface(),
+                        word.getReading(),
+                        word.getBaseForm(),
+                        word.getPartOfSpeech(),
+                        word.getStartIndex() + start,
+                        word.getEndIndex() + start
+                ));
+            }
+            return words;
+        }
+    }
+
+    /**
+     * Tokenizes a range of independent texts, splitting the range in half
+     */
+    private static class TextsTask extends RecursiveAction {
+        private final List<String> texts;
+        private final List<JapaneseWord>[] results;
+        private final int from;
+        private final int to;
+
+        TextsTask(List<String> texts, List<JapaneseWord>[] results, int from, int to) {
+            this.texts = texts;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= TEXTS_PER_TASK) {
+                for (int i = from; i < to; i++) {
+                    results[i] = JapaneseTextParser.parseText(texts.get(i));
+                }
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new TextsTask(texts, results, from, middle),
+                    new TextsTask(texts, results, middle, to));
+        }
+    }
+}
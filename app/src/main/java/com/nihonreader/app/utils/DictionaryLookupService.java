@@ -6,7 +6,6 @@ import android.text.TextUtils;
 import androidx.annotation.NonNull;
 
 import com.atilika.kuromoji.ipadic.Token;
-import com.atilika.kuromoji.ipadic.Tokenizer;
 import com.nihonreader.app.models.JapaneseWord;
 import com.nihonreader.app.models.VocabularyItem;
 import com.nihonreader.app.repository.StoryRepository;
@@ -25,7 +24,6 @@ public class DictionaryLookupService {
     private final StoryRepository repository;
     private final Context context;
     private final KanjiDictionary kanjiDictionary;
-    private final Tokenizer tokenizer = new Tokenizer();
     
     public interface OnWordDefinitionFoundListener {
         void onDefinitionFound(VocabularyItem vocabularyItem);
@@ -162,7 +160,7 @@ public class DictionaryLookupService {
             return "";
         }
         
-        List<Token> tokens = tokenizer.tokenize(word);
+        List<Token> tokens = TokenizerService.tokenizer().tokenize(word);
         if (!tokens.isEmpty()) {
             return tokens.get(0).getReading();
         }
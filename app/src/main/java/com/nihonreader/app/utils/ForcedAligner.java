@@ -0,0 +1,346 @@
+package com.nihonreader.app.utils;
+
+import com.nihonreader.app.models.JapaneseWord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fits the sentences of a text to the pauses of its recording.
+ *
+ * The recording is described by its loudness in decibels for every {@link #FRAME_MS} ms.
+ * Frames well below the speech level are silent, and runs of silence long enough for a
+ * breath become pause candidates. Each sentence is expected to take time in proportion to
+ * its mora count, read from the Kuromoji readings, and dynamic programming picks the pause
+ * for each sentence boundary that best fits those durations, favouring longer pauses. Only
+ * pauses within a band around the expected time of a boundary are considered; a boundary
+ * with no plausible pause is placed at its expected time.
+ */
+public class ForcedAligner {
+
+    public static final int FRAME_MS = 10;
+
+    // Silence must last this many frames to count as a pause between sentences
+    private static final int MIN_PAUSE_FRAMES = 15;
+    // Silence threshold, as a fraction of the way from the noise floor to the speech level
+    private static final float SILENCE_FRACTION = 0.3f;
+    // Below this spread between floor and speech in dB there are no usable pauses
+    private static final float MIN_DYNAMIC_RANGE_DB = 6f;
+    private static final long MIN_SEGMENT_MS = 300;
+    private static final long MIN_BAND_MS = 10000;
+    private static final double BAND_FRACTION = 0.05;
+    private static final int MAX_CANDIDATES = 48;
+    // Cost reduction for a pause of a second or longer; shorter pauses get a share of it
+    private static final double PAUSE_BONUS = 0.5;
+    // Cost of placing a boundary where no pause was found
+    private static final double NO_PAUSE_COST = 2.0;
+
+    /**
+     * A run of silent frames
+     */
+    static class Pause {
+        final int startFrame;
+        final int endFrame;
+
+        Pause(int startFrame, int endFrame) {
+            this.startFrame = startFrame;
+            this.endFrame = endFrame;
+        }
+
+        long getCenterMs() {
+            return (long) (startFrame + endFrame) * FRAME_MS / 2;
+        }
+
+        long getDurationMs() {
+            return (long) (endFrame - startFrame) * FRAME_MS;
+        }
+    }
+
+    private ForcedAligner() {
+    }
+
+    /**
+     * Mora count of each sentence, at least 1 so every sentence gets some time.
+     * Tokenizes on the calling thread, so it runs within the caller's thread budget.
+     */
+    public static int[] countMorae(List<String> sentences) {
+        int[] morae = new int[sentences.size()];
+        for (int i = 0; i < morae.length; i++) {
+            int count = 0;
+            for (JapaneseWord word : JapaneseTextParser.parseText(sentences.get(i))) {
+                count += countMorae(word);
+            }
+            morae[i] = Math.max(1, count);
+        }
+        return morae;
+    }
+
+    private static int countMorae(JapaneseWord word) {
+        if ("記号".equals(word.getPartOfSpeech())) {
+            return 0;
+        }
+
+        // Words missing from the dictionary have no reading, so estimate from the surface
+        String reading = word.getReading();
+        if (reading == null || reading.isEmpty() || "*".equals(reading)) {
+            reading = word.getSurface();
+        }
+
+        int count = 0;
+        for (int i = 0; i < reading.length(); i++) {
+            char c = reading.charAt(i);
+            if (isSmallKana(c)) {
+                // Small ゃ, ァ etc. join the previous kana into one mora
+                continue;
+            }
+            if (isKana(c)) {
+                count++;
+            } else if (Character.UnicodeBlock.of(c) == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS) {
+                count += 2;
+            } else if (Character.isLetterOrDigit(c)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isKana(char c) {
+        return (c >= 'ぁ' && c <= 'ゖ') || (c >= 'ァ' && c <= 'ヺ') || c == 'ー';
+    }
+
+    private static boolean isSmallKana(char c) {
+        switch (c) {
+            case 'ぁ': case 'ぃ': case 'ぅ': case 'ぇ': case 'ぉ':
+            case 'ゃ': case 'ゅ': case 'ょ': case 'ゎ':
+            case 'ァ': case 'ィ': case 'ゥ': case 'ェ': case 'ォ':
+            case 'ャ': case 'ュ': case 'ョ': case 'ヮ':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Find the start time of each sentence
+     * @param levels Loudness of each frame of the recording, in dB
+     * @param morae Mora count of each sentence
+     * @return The start of each sentence in ms, followed by the end of the recording
+     */
+    public static long[] align(float[] levels, int[] morae) {
+        int sentenceCount = morae.length;
+        long[] boundaries = new long[sentenceCount + 1];
+        long totalMs = (long) levels.length * FRAME_MS;
+        boundaries[sentenceCount] = totalMs;
+        if (sentenceCount <= 1) {
+            return boundaries;
+        }
+
+        float threshold = silenceThreshold(levels);
+        int firstVoiced = 0;
+        int lastVoiced = levels.length;
+        if (!Float.isNaN(threshold)) {
+            while (firstVoiced < levels.length && levels[firstVoiced] < threshold) {
+                firstVoiced++;
+            }
+            while (lastVoiced > firstVoiced && levels[lastVoiced - 1] < threshold) {
+                lastVoiced--;
+            }
+        }
+        if (lastVoiced <= firstVoiced) {
+            firstVoiced = 0;
+            lastVoiced = levels.length;
+        }
+        long speechStart = (long) firstVoiced * FRAME_MS;
+        long speechEnd = (long) lastVoiced * FRAME_MS;
+
+        // Where each boundary would fall if every mora took the same time
+        long totalMorae = 0;
+        for (int mora : morae) {
+            totalMorae += mora;
+        }
+        double msPerMora = (double) Math.max(1, speechEnd - speechStart) / totalMorae;
+        long[] expected = new long[sentenceCount];
+        long cumulative = 0;
+        for (int k = 1; k < sentenceCount; k++) {
+            cumulative += morae[k - 1];
+            expected[k] = speechStart + Math.round(cumulative * msPerMora);
+        }
+
+        List<Pause> pauses = Float.isNaN(threshold)
+                ? new ArrayList<>() : findPauses(levels, threshold, firstVoiced, lastVoiced);
+        long[] chosen = choosePauses(pauses, expected, morae, msPerMora, speechStart, speechEnd);
+        if (chosen == null) {
+            // Too little audio for the sentences to be placed apart, so use the estimate
+            chosen = expected;
+        }
+
+        for (int k = 1; k < sentenceCount; k++) {
+            boundaries[k] = chosen[k];
+        }
+        return boundaries;
+    }
+
+    /**
+     * Loudness between silence and speech, or NaN if the recording has no clear pauses
+     */
+    static float silenceThreshold(float[] levels) {
+        if (levels.length == 0) {
+            return Float.NaN;
+        }
+
+        float[] sorted = levels.clone();
+        Arrays.sort(sorted);
+        float floor = sorted[sorted.length / 10];
+        float speech = sorted[sorted.length * 9 / 10];
+        if (speech - floor < MIN_DYNAMIC_RANGE_DB) {
+            return Float.NaN;
+        }
+        return floor + SILENCE_FRACTION * (speech - floor);
+    }
+
+    /**
+     * Runs of silence between two frames that are long enough to be pauses, in order
+     */
+    static List<Pause> findPauses(float[] levels, float threshold, int fromFrame, int toFrame) {
+        List<Pause> pauses = new ArrayList<>();
+        int runStart = -1;
+        for (int i = fromFrame; i < toFrame; i++) {
+            if (levels[i] < threshold) {
+                if (runStart < 0) {
+                    runStart = i;
+                }
+            } else if (runStart >= 0) {
+                if (i - runStart >= MIN_PAUSE_FRAMES) {
+                    pauses.add(new Pause(runStart, i));
+                }
+                runStart = -1;
+            }
+        }
+        return pauses;
+    }
+
+    /**
+     * Pick one boundary time per sentence boundary by dynamic programming over the pause
+     * candidates near each boundary's expected time
+     * @return The chosen times indexed by boundary (index 0 unused), or null if none fit
+     */
+    private static long[] choosePauses(List<Pause> pauses, long[] expected, int[] morae,
+                                       double msPerMora, long speechStart, long speechEnd) {
+        int sentenceCount = morae.length;
+        long band = Math.max(MIN_BAND_MS, (long) ((speechEnd - speechStart) * BAND_FRACTION));
+
+        long[] pauseCenters = new long[pauses.size()];
+        for (int i = 0; i < pauseCenters.length; i++) {
+            pauseCenters[i] = pauses.get(i).getCenterMs();
+        }
+
+        // Candidates of each boundary, with the cost of ending a sentence there
+        long[][] times = new long[sentenceCount][];
+        double[][] bonuses = new double[sentenceCount][];
+        for (int k = 1; k < sentenceCount; k++) {
+            int from = lowerBound(pauseCenters, expected[k] - band);
+            int to = lowerBound(pauseCenters, expected[k] + band + 1);
+            // Keep the candidates nearest to the expected time
+            while (to - from > MAX_CANDIDATES) {
+                if (expected[k] - pauseCenters[from] > pauseCenters[to - 1] - expected[k]) {
+                    from++;
+                } else {
+                    to--;
+                }
+            }
+
+            int count = to - from;
+            times[k] = new long[count + 1];
+            bonuses[k] = new double[count + 1];
+            for (int i = 0; i < count; i++) {
+                Pause pause = pauses.get(from + i);
+                times[k][i] = pauseCenters[from + i];
+                bonuses[k][i] = -PAUSE_BONUS * Math.min(1.0, pause.getDurationMs() / 1000.0);
+            }
+            times[k][count] = expected[k];
+            bonuses[k][count] = NO_PAUSE_COST;
+        }
+
+        double[] previousCost = null;
+        int[][] backPointers = new int[sentenceCount][];
+        for (int k = 1; k < sentenceCount; k++) {
+            int count = times[k].length;
+            double[] cost = new double[count];
+            backPointers[k] = new int[count];
+            for (int j = 0; j < count; j++) {
+                long time = times[k][j];
+                double best = Double.POSITIVE_INFINITY;
+                int bestPrevious = -1;
+                if (k == 1) {
+                    best = segmentCost(speechStart, time, morae[0], msPerMora);
+                } else {
+                    for (int i = 0; i < times[k - 1].length; i++) {
+                        if (Double.isInfinite(previousCost[i])) {
+                            continue;
+                        }
+                        double total = previousCost[i]
+                                + segmentCost(times[k - 1][i], time, morae[k - 1], msPerMora);
+                        if (total < best) {
+                            best = total;
+                            bestPrevious = i;
+                        }
+                    }
+                }
+                cost[j] = best + bonuses[k][j];
+                backPointers[k][j] = bestPrevious;
+            }
+            previousCost = cost;
+        }
+
+        // Close the last sentence at the end of the speech
+        int last = sentenceCount - 1;
+        double best = Double.POSITIVE_INFINITY;
+        int bestIndex = -1;
+        for (int j = 0; j < times[last].length; j++) {
+            double total = previousCost[j]
+                    + segmentCost(times[last][j], speechEnd, morae[last], msPerMora);
+            if (total < best) {
+                best = total;
+                bestIndex = j;
+            }
+        }
+        if (bestIndex < 0) {
+            return null;
+        }
+
+        long[] chosen = new long[sentenceCount];
+        for (int k = last; k >= 1; k--) {
+            chosen[k] = times[k][bestIndex];
+            bestIndex = backPointers[k][bestIndex];
+        }
+        return chosen;
+    }
+
+    /**
+     * How badly a sentence fits between two times, from the log ratio of its duration to the
+     * duration its morae predict
+     */
+    private static double segmentCost(long start, long end, int morae, double msPerMora) {
+        long duration = end - start;
+        if (duration < MIN_SEGMENT_MS) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double ratio = Math.log(duration / (morae * msPerMora));
+        return ratio * ratio;
+    }
+
+    private static int lowerBound(long[] values, long key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -106,6 +106,15 @@ public class JSONExportImportUtils {
                             segmentObject.addProperty("start", segment.getStart());
                             segmentObject.addProperty("end", segment.getEnd());
                             segmentObject.addProperty("text", segment.getText());
+                            int[] wordTimings = segment.getWordTimings();
+                            if (wordTimings != null) {
+                                // Packed as in WordTimings: start, end, char start, char end per word
+                                JsonArray wordsArray = new JsonArray();
+                                for (int value : wordTimings) {
+                                    wordsArray.add(value);
+                                }
+                                segmentObject.add("wordTimings", wordsArray);
+                            }
                             segmentsArray.add(segmentObject);
                         }
                         contentObject.add("segments", segmentsArray);
@@ -352,6 +361,10 @@ public class JSONExportImportUtils {
                                         segmentObject.get("end").getAsLong(),
                                         segmentObject.get("text").getAsString()
                                 );
+                                if (segmentObject.has("wordTimings")) {
+                                    segment.setWordTimings(readWordTimings(
+                                            segmentObject.getAsJsonArray("wordTimings")));
+                                }
                                 segments.add(segment);
                             }
                             
@@ -397,6 +410,28 @@ public class JSONExportImportUtils {
         }
     }
     
+    /**
+     * Read exported word timings
+     * @param array The packed values, as written by the export
+     * @return The timings, or null if they are malformed
+     */
+    private static int[] readWordTimings(JsonArray array) {
+        if (array.size() == 0 || array.size() % WordTimings.STRIDE != 0) {
+            return null;
+        }
+        int[] timings = new int[array.size()];
+        try {
+            for (int i = 0; i < timings.length; i++) {
+                timings[i] = array.get(i).getAsInt();
+            }
+        } catch (RuntimeException e) {
+            // Not numbers; the segment is imported without word timings
+            Log.w(TAG, "Invalid word timings", e);
+            return null;
+        }
+        return timings;
+    }
+    
     /**
      * Extract a ZIP file to a directory
      * @param context Application context
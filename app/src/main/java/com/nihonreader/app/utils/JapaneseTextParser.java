@@ -1,7 +1,6 @@
 package com.nihonreader.app.utils;
 
 import com.atilika.kuromoji.ipadic.Token;
-import com.atilika.kuromoji.ipadic.Tokenizer;
 import com.nihonreader.app.models.JapaneseWord;
 
 import java.util.ArrayList;
@@ -12,18 +11,6 @@ import java.util.List;
  */
 public class JapaneseTextParser {
     
-    private static Tokenizer tokenizer;
-    
-    /**
-     * Get a singleton instance of the Kuromoji tokenizer
-     */
-    private static synchronized Tokenizer getTokenizer() {
-        if (tokenizer == null) {
-            tokenizer = new Tokenizer();
-        }
-        return tokenizer;
-    }
-    
     /**
      * Parse a Japanese text into a list of JapaneseWord objects
      * 
@@ -32,26 +19,43 @@ public class JapaneseTextParser {
      */
     public static List<JapaneseWord> parseText(String text) {
         List<JapaneseWord> words = new ArrayList<>();
+        parseText(text, words);
+        return words;
+    }
+    
+    /**
+     * Parse a Japanese text into a caller-supplied list, so bulk callers can reuse one buffer.
+     * The list is cleared first.
+     * 
+     * @param text The Japanese text to parse
+     * @param words The list to fill with JapaneseWord objects
+     */
+    public static void parseText(String text, List<JapaneseWord> words) {
+        words.clear();
         
         if (text == null || text.isEmpty()) {
-            return words;
+            return;
         }
         
         // Tokenize the text using Kuromoji
-        List<Token> tokens = getTokenizer().tokenize(text);
+        List<Token> tokens = TokenizerService.tokenizer().tokenize(text);
+        if (words instanceof ArrayList) {
+            ((ArrayList<JapaneseWord>) words).ensureCapacity(tokens.size());
+        }
         
         int currentPosition = 0;
         for (Token token : tokens) {
             String surface = token.getSurface();
+            int length = surface.length();
             
-            // Find the actual position in the original text to handle potential whitespace
-            while (currentPosition < text.length() && !text.substring(currentPosition).startsWith(surface)) {
-                currentPosition++;
+            // Kuromoji reports where each token starts; only search if that doesn't match the text
+            int startIndex = token.getPosition();
+            if (startIndex < currentPosition || !text.regionMatches(startIndex, surface, 0, length)) {
+                startIndex = findSurface(text, surface, currentPosition);
             }
             
-            if (currentPosition < text.length()) {
-                int startIndex = currentPosition;
-                int endIndex = startIndex + surface.length();
+            if (startIndex >= 0) {
+                int endIndex = startIndex + length;
                 
                 JapaneseWord word = new JapaneseWord(
                         surface,
@@ -66,8 +70,20 @@ public class JapaneseTextParser {
                 currentPosition = endIndex;
             }
         }
-        
-        return words;
+    }
+    
+    /**
+     * Find a token's surface in the text from the given position, without allocating
+     * @return The start index, or -1 if the surface does not occur
+     */
+    private static int findSurface(String text, String surface, int fromIndex) {
+        int length = surface.length();
+        for (int i = fromIndex; i + length <= text.length(); i++) {
+            if (text.regionMatches(i, surface, 0, length)) {
+                return i;
+            }
+        }
+        return -1;
     }
     
     /**
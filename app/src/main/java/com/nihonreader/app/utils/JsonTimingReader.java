@@ -0,0 +1,376 @@
+package com.nihonreader.app.utils;
+
+import android.util.Log;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import com.nihonreader.app.models.AudioSegment;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the segments of a JSON timing file token by token, without building a tree of
+ * the document.
+ *
+ * The file is either an array of segment objects or an object holding one, under
+ * "segments" or else the first array property, as in Whisper output. Which keys hold the
+ * start, end and text is worked out once from the first segment object; every later
+ * segment is read straight into an {@link AudioSegment} and its other values are skipped,
+ * so only one segment is held in memory at a time.
+ *
+ * A segment may have a "words" array of timed words, as Whisper writes with word
+ * timestamps on. Its keys are resolved the same way, and the words are packed into the
+ * segment's {@link WordTimings}.
+ *
+ * Times may be milliseconds written as integers, seconds written with a fraction, or
+ * strings in either m:ss.cc or seconds.
+ */
+class JsonTimingReader {
+
+    private static final String TAG = "JsonTimingReader";
+
+    private static final String SEGMENTS_KEY = "segments";
+    private static final String[] START_KEYS = {"start", "startTime", "start_time", "from"};
+    private static final String[] END_KEYS = {"end", "endTime", "end_time", "to"};
+    private static final String[] TEXT_KEYS = {"text", "content", "transcript", "value"};
+    private static final String WORDS_KEY = "words";
+    private static final String[] WORD_TEXT_KEYS = {"word", "text"};
+
+    private final JsonReader reader;
+    private List<AudioSegment> segments = new ArrayList<>();
+
+    // Keys found in the first segment object, used for the rest of the file
+    private boolean keysResolved;
+    private String startKey;
+    private String endKey;
+    private String textKey;
+    private boolean wordKeysResolved;
+    private String wordStartKey;
+    private String wordEndKey;
+    private String wordTextKey;
+
+    // Words of the segment being read, with their start and end times interleaved
+    private final List<String> wordTexts = new ArrayList<>();
+    private long[] wordTimes = new long[64];
+    private int wordCount;
+
+    // The last segment read, kept back until the next one's start is known
+    private boolean hasPrevious;
+    private long previousStart;
+    private long previousEnd;
+    private String previousText;
+    private int[] previousWords;
+    private int segmentIndex;
+
+    JsonTimingReader(Reader reader) {
+        this.reader = new JsonReader(reader);
+        this.reader.setLenient(true);
+    }
+
+    /**
+     * Read every segment in the file. Segments missing a start or text are skipped.
+     * @return The segments, or those read before the point where the JSON was malformed
+     * @throws IOException If reading the underlying file failed
+     */
+    List<AudioSegment> read() throws IOException {
+        try {
+            JsonToken token = reader.peek();
+            if (token == JsonToken.BEGIN_ARRAY) {
+                readSegments();
+            } else if (token == JsonToken.BEGIN_OBJECT) {
+                readContainer();
+            } else {
+                Log.e(TAG, "Invalid JSON format: neither array nor object");
+            }
+        } catch (MalformedJsonException | EOFException | IllegalStateException | NumberFormatException e) {
+            Log.e(TAG, "Error parsing JSON timing file", e);
+        }
+        finishPrevious(-1);
+        return segments;
+    }
+
+    /**
+     * Find the segments array in a top-level object, preferring one named "segments"
+     */
+    private void readContainer() throws IOException {
+        boolean found = false;
+        boolean foundByName = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            boolean named = SEGMENTS_KEY.equals(name);
+            if (reader.peek() == JsonToken.BEGIN_ARRAY && !foundByName && (named || !found)) {
+                if (found) {
+                    // An earlier array was only a guess; start over with the named one
+                    segments = new ArrayList<>();
+                    keysResolved = false;
+                    wordKeysResolved = false;
+                    segmentIndex = 0;
+                }
+                readSegments();
+                finishPrevious(-1);
+                found = true;
+                foundByName = named;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!found) {
+            Log.e(TAG, "No segments array found in JSON");
+        }
+    }
+
+    private void readSegments() throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+            } else if (keysResolved) {
+                readSegment();
+            } else {
+                readFirstSegment();
+            }
+        }
+        reader.endArray();
+    }
+
+    /**
+     * Read the first segment object whole and decide which of its keys to use
+     */
+    private void readFirstSegment() throws IOException {
+        Map<String, String> strings = new LinkedHashMap<>();
+        Map<String, String> numbers = new HashMap<>();
+        readFirstObject(strings, numbers, true);
+
+        startKey = findKey(START_KEYS, strings, numbers);
+        endKey = findKey(END_KEYS, strings, numbers);
+        textKey = findKey(TEXT_KEYS, strings, numbers);
+        if (textKey == null) {
+            // Fall back to any string that is not one of the times
+            for (String name : strings.keySet()) {
+                if (!name.equals(startKey) && !name.equals(endKey)) {
+                    textKey = name;
+                    break;
+                }
+            }
+        }
+        keysResolved = true;
+
+        String text = strings.containsKey(textKey) ? strings.get(textKey) : numbers.get(textKey);
+        addSegment(getTime(startKey, strings, numbers), getTime(endKey, strings, numbers), text);
+    }
+
+    /**
+     * Read the primitive values of an object by name, and any words it holds
+     */
+    private void readFirstObject(Map<String, String> strings, Map<String, String> numbers,
+                                 boolean withWords) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            JsonToken token = reader.peek();
+            if (token == JsonToken.STRING) {
+                strings.put(name, reader.nextString());
+            } else if (token == JsonToken.NUMBER) {
+                numbers.put(name, reader.nextString());
+            } else if (withWords && WORDS_KEY.equals(name)) {
+                readWords();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static String findKey(String[] candidates, Map<String, String> strings,
+                                  Map<String, String> numbers) {
+        for (String candidate : candidates) {
+            if (strings.containsKey(candidate) || numbers.containsKey(candidate)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static long getTime(String key, Map<String, String> strings, Map<String, String> numbers) {
+        if (key == null) {
+            return -1;
+        }
+        if (numbers.containsKey(key)) {
+            return parseNumberTime(numbers.get(key));
+        }
+        return AudioUtils.parseTimeValue(strings.get(key));
+    }
+
+    private void readSegment() throws IOException {
+        long start = -1;
+        long end = -1;
+        String text = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals(startKey)) {
+                start = readTime();
+            } else if (name.equals(endKey)) {
+                end = readTime();
+            } else if (name.equals(textKey)) {
+                text = readString();
+            } else if (name.equals(WORDS_KEY)) {
+                readWords();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        addSegment(start, end, text);
+    }
+
+    private void readWords() throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return;
+        }
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                reader.skipValue();
+            } else if (wordKeysResolved) {
+                readWord();
+            } else {
+                readFirstWord();
+            }
+        }
+        reader.endArray();
+    }
+
+    private void readFirstWord() throws IOException {
+        Map<String, String> strings = new HashMap<>();
+        Map<String, String> numbers = new HashMap<>();
+        readFirstObject(strings, numbers, false);
+
+        wordStartKey = findKey(START_KEYS, strings, numbers);
+        wordEndKey = findKey(END_KEYS, strings, numbers);
+        wordTextKey = findKey(WORD_TEXT_KEYS, strings, numbers);
+        wordKeysResolved = true;
+
+        addWord(getTime(wordStartKey, strings, numbers), getTime(wordEndKey, strings, numbers),
+                strings.get(wordTextKey));
+    }
+
+    private void readWord() throws IOException {
+        long start = -1;
+        long end = -1;
+        String text = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals(wordStartKey)) {
+                start = readTime();
+            } else if (name.equals(wordEndKey)) {
+                end = readTime();
+            } else if (name.equals(wordTextKey)) {
+                text = readString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        addWord(start, end, text);
+    }
+
+    private void addWord(long start, long end, String text) {
+        if (start < 0 || end < start || text == null) {
+            return;
+        }
+        if (2 * wordCount + 2 > wordTimes.length) {
+            wordTimes = Arrays.copyOf(wordTimes, wordTimes.length * 2);
+        }
+        wordTimes[2 * wordCount] = start;
+        wordTimes[2 * wordCount + 1] = end;
+        wordTexts.add(text);
+        wordCount++;
+    }
+
+    private long readTime() throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.NUMBER) {
+            return parseNumberTime(reader.nextString());
+        } else if (token == JsonToken.STRING) {
+            return AudioUtils.parseTimeValue(reader.nextString());
+        }
+        reader.skipValue();
+        return -1;
+    }
+
+    private String readString() throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+            return reader.nextString();
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    /**
+     * A whole number is milliseconds; one with a fraction or exponent is seconds
+     */
+    private static long parseNumberTime(String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            char c = literal.charAt(i);
+            if (c == '.' || c == 'e' || c == 'E') {
+                return Math.round(Double.parseDouble(literal) * 1000);
+            }
+        }
+        return Long.parseLong(literal);
+    }
+
+    private void addSegment(long start, long end, String text) {
+        int[] words = WordTimings.pack(text, start, wordTexts, wordTimes, wordCount);
+        wordTexts.clear();
+        wordCount = 0;
+
+        finishPrevious(start);
+        hasPrevious = true;
+        previousStart = start;
+        previousEnd = end;
+        previousText = text;
+        previousWords = words;
+    }
+
+    /**
+     * Emit the segment held back, ending it at the next start if it has no end of its own
+     */
+    private void finishPrevious(long nextStart) {
+        if (!hasPrevious) {
+            return;
+        }
+        hasPrevious = false;
+        int index = segmentIndex++;
+
+        long end = previousEnd;
+        if (end == -1) {
+            end = nextStart != -1 ? nextStart : previousStart + AudioUtils.DEFAULT_LAST_SEGMENT_MS;
+        }
+        if (previousStart != -1 && previousText != null && !previousText.isEmpty()) {
+            AudioSegment segment = new AudioSegment(previousStart, end, previousText);
+            segment.setWordTimings(previousWords);
+            segments.add(segment);
+        } else {
+            if (Tracer.ENABLED && Tracer.isEnabled(Tracer.AUDIO)) {
+                Tracer.count(Tracer.AUDIO, "timing.skippedSegments", 1);
+                Tracer.log(Tracer.AUDIO, TAG, "Skipping segment " + index + " missing required fields");
+            }
+        }
+    }
+}
@@ -4,23 +4,23 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.AsyncTask;
 import android.util.Log;
-import android.util.Xml;
-
-import org.xmlpull.v1.XmlPullParser;
-import org.xmlpull.v1.XmlPullParserException;
+import android.util.LruCache;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -35,6 +35,18 @@ public class KanjiDictionary {
     // Dictionary file name
     private static final String KANJIDIC_FILE = "kanjidic2.xml";
     
+    // Compiled binary index built from the dictionary file
+    private static final String KANJIDIC_INDEX_FILE = "kanjidic2.idx";
+    
+    // Default number of decoded entries kept in memory
+    private static final int DEFAULT_CACHE_SIZE = 512;
+    
+    // Highest KANJIDIC2 grade that belongs to the Jōyō set (8 = secondary school Jōyō)
+    private static final int MAX_JOYO_GRADE = 8;
+    
+    // Highest KANJIDIC2 grade taught in elementary school (Kyōiku kanji)
+    private static final int MAX_KYOIKU_GRADE = 6;
+    
     // SharedPreferences keys
     private static final String PREFS_NAME = "KanjiDictPrefs";
     private static final String KEY_DICT_DOWNLOADED = "dictionary_downloaded";
@@ -43,10 +55,16 @@ public class KanjiDictionary {
     private static KanjiDictionary instance;
     
     private Context context;
-    private Map<String, KanjiEntry> kanjiMap = new HashMap<>();
-    private boolean isLoaded = false;
+    private final KanjiCache kanjiCache = new KanjiCache(DEFAULT_CACHE_SIZE);
+    private final Map<String, KanjiEntry> pinnedKanji = new ConcurrentHashMap<>();
+    private final AtomicLong pinnedHitCount = new AtomicLong();
+    private volatile KanjiIndex kanjiIndex;
+    private volatile boolean isLoaded = false;
     private boolean isDownloading = false;
-    private List<DictionaryLoadListener> loadListeners = new ArrayList<>();
+    private boolean pinJoyoKanji = false;
+    private boolean warmCacheOnLoad = true;
+    private AsyncTask<Void, Integer, Boolean> loadTask;
+    private List<DictionaryLoadListener> loadListeners = new CopyOnWriteArrayList<>();
     
     /**
      * Class representing a single kanji entry from KANJIDIC2
@@ -56,6 +74,7 @@ public class KanjiDictionary {
         private List<String> readings = new ArrayList<>();
         private List<String> meanings = new ArrayList<>();
         private String strokeCount;
+        private int grade;
         
         public KanjiEntry(String kanji) {
             this.kanji = kanji;
@@ -89,6 +108,18 @@ public class KanjiDictionary {
             this.strokeCount = strokeCount;
         }
         
+        /**
+         * School grade from KANJIDIC2: 1-6 for Kyōiku kanji, 8 for the rest of the Jōyō set,
+         * 9-10 for Jinmeiyō kanji, or 0 if ungraded
+         */
+        public int getGrade() {
+            return grade;
+        }
+        
+        public void setGrade(int grade) {
+            this.grade = grade;
+        }
+        
         /**
          * Get a comma-separated string of all readings
          */
@@ -175,12 +206,19 @@ public class KanjiDictionary {
             return;
         }
         
+        // A compiled index makes the dictionary usable immediately
+        File indexFile = new File(context.getFilesDir(), KANJIDIC_INDEX_FILE);
+        if (indexFile.exists() && openIndex(indexFile)) {
+            notifyLoaded();
+            return;
+        }
+        
         // Check if dictionary file exists
         File dictFile = new File(context.getFilesDir(), KANJIDIC_FILE);
         
         if (dictFile.exists()) {
-            // Dictionary file exists, parse it
-            parseDictionaryFile(dictFile);
+            // Dictionary file exists, compile it into the index
+            buildIndexInBackground(dictFile);
         } else {
             // Dictionary file doesn't exist, download it
             downloadDictionary();
@@ -188,71 +226,117 @@ public class KanjiDictionary {
     }
     
     /**
-     * Download the KANJIDIC2 file
+     * Map the compiled index into memory
+     */
+    private boolean openIndex(File indexFile) {
+        try {
+            kanjiIndex = KanjiIndex.open(indexFile);
+            isLoaded = true;
+            if (Tracer.ENABLED && Tracer.isEnabled(Tracer.DICTIONARY)) {
+                Tracer.log(Tracer.DICTIONARY, TAG, "Opened kanji index with " + kanjiIndex.size() + " entries");
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Error opening kanji index, it will be rebuilt", e);
+            indexFile.delete();
+            return false;
+        }
+    }
+    
+    private void notifyLoaded() {
+        if (pinJoyoKanji || warmCacheOnLoad) {
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(this::warmCache);
+        }
+        
+        for (DictionaryLoadListener listener : loadListeners) {
+            listener.onDictionaryLoaded();
+        }
+    }
+    
+    private void notifyLoadFailed(String error) {
+        for (DictionaryLoadListener listener : loadListeners) {
+            listener.onDictionaryLoadFailed(error);
+        }
+    }
+    
+    /**
+     * Compile an already downloaded dictionary file into the index on a background thread
+     */
+    private void buildIndexInBackground(File dictFile) {
+        isDownloading = true;
+        
+        new AsyncTask<Void, Void, Boolean>() {
+            @Override
+            protected Boolean doInBackground(Void... voids) {
+                return buildIndex(dictFile);
+            }
+            
+            @Override
+            protected void onPostExecute(Boolean success) {
+                isDownloading = false;
+                
+                if (success) {
+                    notifyLoaded();
+                } else {
+                    notifyLoadFailed("Failed to build dictionary index");
+                }
+            }
+        }.execute();
+    }
+    
+    /**
+     * Download KANJIDIC2 and ingest it in a single streaming pass.
+     * The gzip is decompressed straight from the network into the XML parser that fills
+     * the index, so neither the archive nor the decompressed XML ever touches the disk.
+     * Progress is reported by compressed bytes consumed.
      */
     private void downloadDictionary() {
         isDownloading = true;
         
-        new AsyncTask<Void, Integer, Boolean>() {
+        loadTask = new AsyncTask<Void, Integer, Boolean>() {
             @Override
             protected Boolean doInBackground(Void... voids) {
+                HttpURLConnection connection = null;
                 try {
-                    // Create a temporary file for the downloaded dictionary
-                    File tempFile = new File(context.getCacheDir(), "kanjidic2.xml.gz");
-                    
-                    // Download the gzipped file
                     URL url = new URL(KANJIDIC_URL);
-                    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                    connection = (HttpURLConnection) url.openConnection();
                     connection.setRequestMethod("GET");
                     
                     // Get the file size
-                    int fileSize = connection.getContentLength();
-                    
-                    try (InputStream inputStream = connection.getInputStream();
-                         FileOutputStream outputStream = new FileOutputStream(tempFile)) {
-                        
-                        byte[] buffer = new byte[4096];
-                        int bytesRead;
-                        int totalBytesRead = 0;
-                        
-                        while ((bytesRead = inputStream.read(buffer)) != -1) {
-                            outputStream.write(buffer, 0, bytesRead);
-                            totalBytesRead += bytesRead;
-                            
-                            // Update progress
-                            if (fileSize > 0) {
-                                int progress = (int) ((totalBytesRead / (float) fileSize) * 100);
-                                publishProgress(progress);
-                            }
-                        }
-                    }
+                    long fileSize = connection.getContentLength();
                     
-                    // Extract the gzipped file
-                    File dictFile = new File(context.getFilesDir(), KANJIDIC_FILE);
-                    try (GZIPInputStream gzipInputStream = new GZIPInputStream(new FileInputStream(tempFile));
-                         FileOutputStream outputStream = new FileOutputStream(dictFile)) {
+                    File indexFile = new File(context.getFilesDir(), KANJIDIC_INDEX_FILE);
+                    try (InputStream networkStream = connection.getInputStream();
+                         ProgressInputStream progressStream = new ProgressInputStream(
+                                 new BufferedInputStream(networkStream), fileSize, this::isCancelled,
+                                 this::publishProgress);
+                         GZIPInputStream gzipInputStream = new GZIPInputStream(progressStream, 16 * 1024)) {
                         
-                        byte[] buffer = new byte[4096];
-                        int bytesRead;
-                        
-                        while ((bytesRead = gzipInputStream.read(buffer)) != -1) {
-                            outputStream.write(buffer, 0, bytesRead);
+                        long traceToken = Tracer.ENABLED ? Tracer.begin(Tracer.DICTIONARY) : 0;
+                        int count = KanjiIndex.compile(gzipInputStream, indexFile);
+                        if (Tracer.ENABLED && Tracer.isEnabled(Tracer.DICTIONARY)) {
+                            Tracer.end(Tracer.DICTIONARY, TAG, "Ingesting " + count + " kanji", traceToken);
                         }
                     }
                     
-                    // Delete the temporary file
-                    tempFile.delete();
-                    
                     // Mark as downloaded in SharedPreferences
                     SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
                     prefs.edit().putBoolean(KEY_DICT_DOWNLOADED, true).apply();
                     
-                    // Parse the dictionary
-                    return parseDictionaryFile(dictFile);
+                    return openIndex(indexFile);
                     
+                } catch (InterruptedIOException e) {
+                    if (Tracer.ENABLED && Tracer.isEnabled(Tracer.DICTIONARY)) {
+                        Tracer.log(Tracer.DICTIONARY, TAG, "Dictionary download cancelled");
+                    }
+                    return false;
                 } catch (IOException e) {
                     Log.e(TAG, "Error downloading dictionary", e);
                     return false;
+                } finally {
+                    if (connection != null) {
+                        connection.disconnect();
+                    }
                 }
             }
             
@@ -267,161 +351,297 @@ public class KanjiDictionary {
             @Override
             protected void onPostExecute(Boolean success) {
                 isDownloading = false;
+                loadTask = null;
                 
                 if (success) {
-                    isLoaded = true;
-                    for (DictionaryLoadListener listener : loadListeners) {
-                        listener.onDictionaryLoaded();
-                    }
+                    notifyLoaded();
                 } else {
-                    for (DictionaryLoadListener listener : loadListeners) {
-                        listener.onDictionaryLoadFailed("Failed to download or parse dictionary");
-                    }
+                    notifyLoadFailed("Failed to download or parse dictionary");
                 }
             }
+            
+            @Override
+            protected void onCancelled(Boolean result) {
+                isDownloading = false;
+                loadTask = null;
+                notifyLoadFailed("Dictionary download cancelled");
+            }
         }.execute();
     }
     
     /**
-     * Parse the KANJIDIC2 XML file
+     * Cancel an in-progress dictionary download.
+     * The partially built index is discarded; the next call to {@link #loadDictionary()} starts over.
      */
-    private boolean parseDictionaryFile(File dictFile) {
-        try {
-            FileInputStream inputStream = new FileInputStream(dictFile);
-            
-            // Since KANJIDIC2 is quite large, we'll parse just when needed
-            // For now, just check that the file is valid
-            XmlPullParser parser = Xml.newPullParser();
-            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
-            parser.setInput(inputStream, "UTF-8");
-            
-            // Check for the root element
-            int eventType = parser.next();
-            if (eventType == XmlPullParser.START_TAG && parser.getName().equals("kanjidic2")) {
-                inputStream.close();
-                
-                // Mark as loaded
-                isLoaded = true;
-                for (DictionaryLoadListener listener : loadListeners) {
-                    listener.onDictionaryLoaded();
-                }
-                return true;
-            } else {
-                inputStream.close();
-                Log.e(TAG, "Invalid KANJIDIC2 file");
-                for (DictionaryLoadListener listener : loadListeners) {
-                    listener.onDictionaryLoadFailed("Invalid dictionary file");
-                }
-                return false;
-            }
-            
-        } catch (IOException | XmlPullParserException e) {
-            Log.e(TAG, "Error parsing dictionary file", e);
-            for (DictionaryLoadListener listener : loadListeners) {
-                listener.onDictionaryLoadFailed("Error parsing dictionary: " + e.getMessage());
+    public void cancelLoading() {
+        if (loadTask != null) {
+            loadTask.cancel(false);
+        }
+    }
+    
+    /**
+     * Compile the KANJIDIC2 XML file into the binary index and map it.
+     * The XML is only needed to build the index, so it is removed afterwards.
+     * Runs on a background thread.
+     */
+    private boolean buildIndex(File dictFile) {
+        File indexFile = new File(context.getFilesDir(), KANJIDIC_INDEX_FILE);
+        
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(dictFile))) {
+            long traceToken = Tracer.ENABLED ? Tracer.begin(Tracer.DICTIONARY) : 0;
+            int count = KanjiIndex.compile(inputStream, indexFile);
+            if (Tracer.ENABLED && Tracer.isEnabled(Tracer.DICTIONARY)) {
+                Tracer.end(Tracer.DICTIONARY, TAG, "Compiling " + count + " kanji", traceToken);
             }
+        } catch (IOException e) {
+            Log.e(TAG, "Error compiling dictionary file", e);
+            return false;
+        }
+        
+        if (!openIndex(indexFile)) {
             return false;
         }
+        
+        dictFile.delete();
+        return true;
     }
     
     /**
-     * Look up information for a specific kanji
+     * Look up information for a specific kanji.
+     * Safe to call from any thread; decoded entries are kept in a bounded LRU cache.
      */
     public KanjiEntry lookupKanji(String kanji) {
-        if (!isLoaded) {
+        if (!isLoaded || kanjiIndex == null || kanji == null || kanji.isEmpty()) {
             return null;
         }
         
-        // If already in cache, return it
-        if (kanjiMap.containsKey(kanji)) {
-            return kanjiMap.get(kanji);
+        KanjiEntry pinned = pinnedKanji.get(kanji);
+        if (pinned != null) {
+            pinnedHitCount.incrementAndGet();
+            return pinned;
         }
         
-        // Otherwise, parse the file to find the kanji
-        try {
-            File dictFile = new File(context.getFilesDir(), KANJIDIC_FILE);
-            FileInputStream inputStream = new FileInputStream(dictFile);
-            
-            XmlPullParser parser = Xml.newPullParser();
-            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
-            parser.setInput(inputStream, "UTF-8");
-            
-            KanjiEntry currentEntry = null;
-            String currentElement = null;
-            boolean inReadingElement = false;
-            String readingType = null;
-            boolean inMeaningElement = false;
-            
-            int eventType = parser.getEventType();
-            while (eventType != XmlPullParser.END_DOCUMENT) {
-                String name;
-                
-                switch (eventType) {
-                    case XmlPullParser.START_TAG:
-                        name = parser.getName();
-                        
-                        if (name.equals("character")) {
-                            currentEntry = null;
-                            inReadingElement = false;
-                            inMeaningElement = false;
-                        } else if (name.equals("literal") && currentEntry == null) {
-                            currentElement = "literal";
-                        } else if (name.equals("stroke_count")) {
-                            currentElement = "stroke_count";
-                        } else if (name.equals("reading")) {
-                            inReadingElement = true;
-                            readingType = parser.getAttributeValue(null, "r_type");
-                        } else if (name.equals("meaning") && parser.getAttributeCount() == 0) {
-                            inMeaningElement = true;
-                        }
-                        break;
-                        
-                    case XmlPullParser.TEXT:
-                        if (currentElement != null && currentElement.equals("literal")) {
-                            if (parser.getText().equals(kanji)) {
-                                // Found our kanji
-                                currentEntry = new KanjiEntry(kanji);
-                            }
-                        } else if (currentEntry != null && currentElement != null && currentElement.equals("stroke_count")) {
-                            currentEntry.setStrokeCount(parser.getText());
-                        } else if (currentEntry != null && inReadingElement) {
-                            if ("ja_on".equals(readingType) || "ja_kun".equals(readingType)) {
-                                currentEntry.addReading(parser.getText());
-                            }
-                        } else if (currentEntry != null && inMeaningElement) {
-                            currentEntry.addMeaning(parser.getText());
-                        }
-                        break;
-                        
-                    case XmlPullParser.END_TAG:
-                        name = parser.getName();
-                        
-                        if (name.equals("character")) {
-                            if (currentEntry != null && currentEntry.getKanji().equals(kanji)) {
-                                // We found and fully parsed our target kanji
-                                kanjiMap.put(kanji, currentEntry);
-                                inputStream.close();
-                                return currentEntry;
-                            }
-                        } else if (name.equals("literal") || name.equals("stroke_count")) {
-                            currentElement = null;
-                        } else if (name.equals("reading")) {
-                            inReadingElement = false;
-                        } else if (name.equals("meaning")) {
-                            inMeaningElement = false;
+        // A cache miss decodes the entry from the index through KanjiCache.create
+        return kanjiCache.get(kanji);
+    }
+    
+    /**
+     * Keep the whole Jōyō set decoded in memory, outside the LRU cache.
+     * Takes effect the next time the dictionary is loaded or the cache is warmed.
+     */
+    public void setPinJoyoKanji(boolean pin) {
+        this.pinJoyoKanji = pin;
+        if (!pin) {
+            pinnedKanji.clear();
+        }
+    }
+    
+    /**
+     * Preload the Kyōiku kanji into the cache as soon as the dictionary is loaded
+     */
+    public void setWarmCacheOnLoad(boolean warm) {
+        this.warmCacheOnLoad = warm;
+    }
+    
+    /**
+     * Change the maximum number of entries held in the LRU cache
+     */
+    public void setCacheSize(int maxEntries) {
+        kanjiCache.resize(maxEntries);
+    }
+    
+    /**
+     * Pin the Jōyō set and/or fill the cache with Kyōiku kanji, lowest grades first,
+     * up to half of the cache capacity. Runs on the calling thread.
+     */
+    public void warmCache() {
+        KanjiIndex index = kanjiIndex;
+        if (index == null) {
+            return;
+        }
+        
+        long traceToken = Tracer.ENABLED ? Tracer.begin(Tracer.DICTIONARY) : 0;
+        
+        if (pinJoyoKanji) {
+            for (int i = 0; i < index.size(); i++) {
+                int grade = index.gradeAt(i);
+                if (grade > 0 && grade <= MAX_JOYO_GRADE) {
+                    KanjiEntry entry = index.entryAt(i);
+                    pinnedKanji.put(entry.getKanji(), entry);
+                }
+            }
+        }
+        
+        if (warmCacheOnLoad) {
+            int budget = kanjiCache.maxSize() / 2;
+            for (int grade = 1; grade <= MAX_KYOIKU_GRADE && budget > 0; grade++) {
+                for (int i = 0; i < index.size() && budget > 0; i++) {
+                    if (index.gradeAt(i) == grade) {
+                        KanjiEntry entry = index.entryAt(i);
+                        if (!pinnedKanji.containsKey(entry.getKanji())) {
+                            kanjiCache.put(entry.getKanji(), entry);
+                            budget--;
                         }
-                        break;
+                    }
                 }
-                
-                eventType = parser.next();
             }
-            
-            inputStream.close();
-            
-        } catch (IOException | XmlPullParserException e) {
-            Log.e(TAG, "Error looking up kanji", e);
         }
         
-        return null;
+        if (Tracer.ENABLED && Tracer.isEnabled(Tracer.DICTIONARY)) {
+            Tracer.end(Tracer.DICTIONARY, TAG, "Warming kanji cache (" + pinnedKanji.size() + " pinned, "
+                    + kanjiCache.size() + " cached)", traceToken);
+        }
+    }
+    
+    /**
+     * Snapshot of the cache counters for the current process
+     */
+    public CacheStats getCacheStats() {
+        return new CacheStats(
+                kanjiCache.hitCount() + pinnedHitCount.get(),
+                kanjiCache.missCount(),
+                kanjiCache.evictionCount(),
+                kanjiCache.size(),
+                kanjiCache.maxSize(),
+                pinnedKanji.size());
+    }
+    
+    /**
+     * Cache counters for kanji lookups
+     */
+    public static class CacheStats {
+        private final long hitCount;
+        private final long missCount;
+        private final long evictionCount;
+        private final int size;
+        private final int maxSize;
+        private final int pinnedCount;
+        
+        CacheStats(long hitCount, long missCount, long evictionCount, int size, int maxSize, int pinnedCount) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.evictionCount = evictionCount;
+            this.size = size;
+            this.maxSize = maxSize;
+            this.pinnedCount = pinnedCount;
+        }
+        
+        public long getHitCount() {
+            return hitCount;
+        }
+        
+        public long getMissCount() {
+            return missCount;
+        }
+        
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+        
+        public int getSize() {
+            return size;
+        }
+        
+        public int getMaxSize() {
+            return maxSize;
+        }
+        
+        public int getPinnedCount() {
+            return pinnedCount;
+        }
+        
+        /**
+         * Fraction of lookups served from memory, between 0 and 1
+         */
+        public float getHitRate() {
+            long total = hitCount + missCount;
+            return total == 0 ? 0f : hitCount / (float) total;
+        }
+        
+        @Override
+        public String toString() {
+            return "KanjiCache[size=" + size + "/" + maxSize + ", pinned=" + pinnedCount
+                    + ", hits=" + hitCount + ", misses=" + missCount + ", evictions=" + evictionCount
+                    + ", hitRate=" + Math.round(getHitRate() * 100) + "%]";
+        }
+    }
+    
+    /**
+     * Thread-safe LRU cache that decodes missing entries from the index
+     */
+    private class KanjiCache extends LruCache<String, KanjiEntry> {
+        KanjiCache(int maxSize) {
+            super(maxSize);
+        }
+        
+        @Override
+        protected KanjiEntry create(String kanji) {
+            KanjiIndex index = kanjiIndex;
+            return index != null ? index.lookup(kanji.codePointAt(0)) : null;
+        }
+    }
+    
+    /**
+     * Input stream that reports the percentage of bytes consumed and aborts the read
+     * with an {@link InterruptedIOException} once the owning task is cancelled
+     */
+    private static class ProgressInputStream extends FilterInputStream {
+        interface Cancellation {
+            boolean isCancelled();
+        }
+        
+        interface ProgressSink {
+            void publish(Integer... progress);
+        }
+        
+        private final long totalBytes;
+        private final Cancellation cancellation;
+        private final ProgressSink progressSink;
+        private long bytesRead;
+        private int lastProgress = -1;
+        
+        ProgressInputStream(InputStream in, long totalBytes, Cancellation cancellation, ProgressSink progressSink) {
+            super(in);
+            this.totalBytes = totalBytes;
+            this.cancellation = cancellation;
+            this.progressSink = progressSink;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            checkCancelled();
+            int b = super.read();
+            if (b != -1) {
+                advance(1);
+            }
+            return b;
+        }
+        
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            checkCancelled();
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                advance(count);
+            }
+            return count;
+        }
+        
+        private void checkCancelled() throws InterruptedIOException {
+            if (cancellation.isCancelled()) {
+                throw new InterruptedIOException("Dictionary ingest cancelled");
+            }
+        }
+        
+        private void advance(int count) {
+            bytesRead += count;
+            if (totalBytes > 0) {
+                int progress = (int) (bytesRead * 100 / totalBytes);
+                if (progress != lastProgress) {
+                    lastProgress = progress;
+                    progressSink.publish(progress);
+                }
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,345 @@
+package com.nihonreader.app.utils;
+
+import android.util.Xml;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact, memory-mapped binary index of KANJIDIC2 entries.
+ *
+ * The index is compiled once from the KANJIDIC2 XML and then mapped read-only.
+ * Layout (big-endian):
+ * <pre>
+ *   int     magic
+ *   int     format version
+ *   int     entry count (n)
+ *   int[n]  code points, sorted ascending
+ *   int[n]  record offsets into the blob
+ *   byte[]  blob of packed records
+ * </pre>
+ * Each record is: stroke count (u8), grade (u8), reading count (u8), meaning count (u8),
+ * followed by the readings and meanings as length-prefixed (u16) UTF-8 strings.
+ */
+public class KanjiIndex implements Closeable {
+
+    private static final int MAGIC = 0x4B4A5831; // "KJX1"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final IntBuffer codePoints;
+    private final IntBuffer offsets;
+    private final int count;
+    private final int blobStart;
+
+    private KanjiIndex(RandomAccessFile file, MappedByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a kanji index file");
+        }
+        if (buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Unsupported kanji index version " + buffer.getInt(4));
+        }
+
+        this.count = buffer.getInt(8);
+        this.blobStart = HEADER_SIZE + count * 8;
+        if (count < 0 || blobStart > buffer.capacity()) {
+            throw new IOException("Corrupt kanji index header");
+        }
+
+        ByteBuffer table = buffer.duplicate();
+        table.position(HEADER_SIZE);
+        table.limit(HEADER_SIZE + count * 4);
+        this.codePoints = table.slice().asIntBuffer();
+
+        table = buffer.duplicate();
+        table.position(HEADER_SIZE + count * 4);
+        table.limit(blobStart);
+        this.offsets = table.slice().asIntBuffer();
+    }
+
+    /**
+     * Map an existing index file into memory
+     */
+    public static KanjiIndex open(File indexFile) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new KanjiIndex(raf, mapped);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Number of kanji in the index
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Grade of the entry at the given position, without decoding its strings
+     * @param position Position in code point order, from 0 to {@link #size()} - 1
+     */
+    public int gradeAt(int position) {
+        return buffer.get(blobStart + offsets.get(position) + 1) & 0xFF;
+    }
+
+    /**
+     * Decode the entry at the given position
+     * @param position Position in code point order, from 0 to {@link #size()} - 1
+     */
+    public KanjiDictionary.KanjiEntry entryAt(int position) {
+        return decode(codePoints.get(position), offsets.get(position));
+    }
+
+    /**
+     * Look up a kanji by its code point
+     * @return The decoded entry, or null if the kanji is not in the index
+     */
+    public KanjiDictionary.KanjiEntry lookup(int codePoint) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int value = codePoints.get(mid);
+            if (value < codePoint) {
+                low = mid + 1;
+            } else if (value > codePoint) {
+                high = mid - 1;
+            } else {
+                return decode(codePoint, offsets.get(mid));
+            }
+        }
+        return null;
+    }
+
+    private KanjiDictionary.KanjiEntry decode(int codePoint, int offset) {
+        ByteBuffer record = buffer.duplicate();
+        record.position(blobStart + offset);
+
+        KanjiDictionary.KanjiEntry entry =
+                new KanjiDictionary.KanjiEntry(new String(Character.toChars(codePoint)));
+
+        int strokeCount = record.get() & 0xFF;
+        int grade = record.get() & 0xFF;
+        int readingCount = record.get() & 0xFF;
+        int meaningCount = record.get() & 0xFF;
+
+        if (strokeCount > 0) {
+            entry.setStrokeCount(String.valueOf(strokeCount));
+        }
+        entry.setGrade(grade);
+        for (int i = 0; i < readingCount; i++) {
+            entry.addReading(readString(record));
+        }
+        for (int i = 0; i < meaningCount; i++) {
+            entry.addMeaning(readString(record));
+        }
+        return entry;
+    }
+
+    private static String readString(ByteBuffer record) {
+        int length = record.getShort() & 0xFFFF;
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Compile KANJIDIC2 XML into a binary index.
+     * The index is written to a temporary file and renamed into place, so a partially
+     * written index is never left behind.
+     * @param xmlStream Stream of KANJIDIC2 XML
+     * @param indexFile Destination index file
+     * @return The number of kanji written
+     */
+    public static int compile(InputStream xmlStream, File indexFile) throws IOException {
+        List<Record> records = new ArrayList<>(14000);
+
+        try {
+            XmlPullParser parser = Xml.newPullParser();
+            parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
+            parser.setInput(xmlStream, "UTF-8");
+
+            Record current = null;
+            String currentElement = null;
+            String readingType = null;
+
+            int eventType = parser.getEventType();
+            while (eventType != XmlPullParser.END_DOCUMENT) {
+                switch (eventType) {
+                    case XmlPullParser.START_TAG: {
+                        String name = parser.getName();
+                        if (name.equals("character")) {
+                            current = new Record();
+                            currentElement = null;
+                        } else if (current != null) {
+                            if (name.equals("reading")) {
+                                readingType = parser.getAttributeValue(null, "r_type");
+                                currentElement = name;
+                            } else if (name.equals("meaning")) {
+                                // Attribute-less meanings are the English ones
+                                currentElement = parser.getAttributeCount() == 0 ? name : null;
+                            } else if (name.equals("literal") || name.equals("stroke_count")
+                                    || name.equals("grade")) {
+                                currentElement = name;
+                            }
+                        }
+                        break;
+                    }
+
+                    case XmlPullParser.TEXT:
+                        if (current != null && currentElement != null) {
+                            current.accept(currentElement, readingType, parser.getText());
+                        }
+                        break;
+
+                    case XmlPullParser.END_TAG:
+                        if (parser.getName().equals("character")) {
+                            if (current != null && current.codePoint > 0) {
+                                records.add(current);
+                            }
+                            current = null;
+                        }
+                        currentElement = null;
+                        break;
+                }
+                eventType = parser.next();
+            }
+        } catch (XmlPullParserException e) {
+            throw new IOException("Malformed KANJIDIC2 XML", e);
+        }
+
+        write(records, indexFile);
+        return records.size();
+    }
+
+    private static void write(List<Record> records, File indexFile) throws IOException {
+        Record[] sorted = records.toArray(new Record[0]);
+        Arrays.sort(sorted, (a, b) -> Integer.compare(a.codePoint, b.codePoint));
+
+        int[] offsets = new int[sorted.length];
+        ByteArrayOutputStream blobBytes = new ByteArrayOutputStream(sorted.length * 64);
+        DataOutputStream blob = new DataOutputStream(blobBytes);
+        for (int i = 0; i < sorted.length; i++) {
+            offsets[i] = blob.size();
+            sorted[i].writeTo(blob);
+        }
+        blob.flush();
+
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(sorted.length);
+            for (Record record : sorted) {
+                out.writeInt(record.codePoint);
+            }
+            for (int offset : offsets) {
+                out.writeInt(offset);
+            }
+            blobBytes.writeTo(out);
+        }
+
+        if (!tempFile.renameTo(indexFile)) {
+            tempFile.delete();
+            throw new IOException("Could not move kanji index into place");
+        }
+    }
+
+    /**
+     * A single kanji collected during compilation
+     */
+    private static class Record {
+        int codePoint;
+        int strokeCount;
+        int grade;
+        final List<String> readings = new ArrayList<>();
+        final List<String> meanings = new ArrayList<>();
+
+        void accept(String element, String readingType, String text) {
+            switch (element) {
+                case "literal":
+                    codePoint = text.codePointAt(0);
+                    break;
+                case "stroke_count":
+                    // The first stroke count is the accepted one; later ones are common miscounts
+                    if (strokeCount == 0) {
+                        strokeCount = parseSmallInt(text);
+                    }
+                    break;
+                case "grade":
+                    grade = parseSmallInt(text);
+                    break;
+                case "reading":
+                    if ("ja_on".equals(readingType) || "ja_kun".equals(readingType)) {
+                        readings.add(text);
+                    }
+                    break;
+                case "meaning":
+                    meanings.add(text);
+                    break;
+            }
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeByte(strokeCount);
+            out.writeByte(grade);
+            out.writeByte(Math.min(readings.size(), 255));
+            out.writeByte(Math.min(meanings.size(), 255));
+            for (int i = 0; i < readings.size() && i < 255; i++) {
+                writeString(out, readings.get(i));
+            }
+            for (int i = 0; i < meanings.size() && i < 255; i++) {
+                writeString(out, meanings.get(i));
+            }
+        }
+
+        private static void writeString(DataOutputStream out, String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            int length = Math.min(bytes.length, 0xFFFF);
+            out.writeShort(length);
+            out.write(bytes, 0, length);
+        }
+
+        private static int parseSmallInt(String text) {
+            try {
+                return Math.max(0, Math.min(255, Integer.parseInt(text.trim())));
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.nihonreader.app.utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Turns decoded audio into its loudness in decibels for every {@link ForcedAligner#FRAME_MS} ms
+ */
+class LevelMeter implements PcmDecoder.PcmConsumer {
+
+    private float[] levels = new float[1024];
+    private int levelCount;
+    private int samplesPerFrame = 1;
+    private double sumOfSquares;
+    private int frameSamples;
+
+    @Override
+    public void onFormat(int sampleRate) {
+        samplesPerFrame = Math.max(1, sampleRate * ForcedAligner.FRAME_MS / 1000);
+    }
+
+    @Override
+    public void onFrame(float[] samples, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            float sample = samples[i];
+            sumOfSquares += sample * sample;
+            if (++frameSamples == samplesPerFrame) {
+                addLevel(sumOfSquares / frameSamples);
+                sumOfSquares = 0;
+                frameSamples = 0;
+            }
+        }
+    }
+
+    private void addLevel(double meanSquare) {
+        if (levelCount == levels.length) {
+            levels = Arrays.copyOf(levels, levels.length * 2);
+        }
+        // Floor at -100 dB so digital silence stays finite
+        levels[levelCount++] = (float) (10 * Math.log10(meanSquare + 1e-10));
+    }
+
+    float[] getLevels() {
+        return Arrays.copyOf(levels, levelCount);
+    }
+}
@@ -0,0 +1,243 @@
+package com.nihonreader.app.utils;
+
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Streams the audio of a file as mono PCM, for analysis such as silence detection,
+ * alignment and waveforms.
+ *
+ * The file is decoded with MediaExtractor and MediaCodec, mixed down to mono and cut into
+ * frames of {@link #FRAME_SAMPLES} samples, which are handed to the consumers as they fill.
+ * Frames come from a small ring of buffers that is reused for the whole file, so memory
+ * stays the same however long the recording is. A consumer may hold on to a frame until
+ * {@link #RING_FRAMES} - 1 more frames have been delivered; after that it is overwritten.
+ */
+public class PcmDecoder {
+
+    private static final String TAG = "PcmDecoder";
+
+    public static final int FRAME_SAMPLES = 4096;
+    public static final int RING_FRAMES = 4;
+
+    private static final long CODEC_TIMEOUT_US = 10000;
+
+    /**
+     * Receives the decoded audio on the decoding thread
+     */
+    public interface PcmConsumer {
+        /**
+         * Called before the first frame, and again if the decoder changes the sample rate
+         */
+        void onFormat(int sampleRate) throws IOException;
+
+        /**
+         * A frame of mono samples between -1 and 1. Every frame is full except possibly the last.
+         */
+        void onFrame(float[] samples, int count) throws IOException;
+    }
+
+    /**
+     * Receives the percentage of the file that has been decoded
+     */
+    public interface ProgressListener {
+        void onProgress(int percentComplete);
+    }
+
+    private final Context context;
+    private final Uri audioUri;
+    private final float[][] ring = new float[RING_FRAMES][FRAME_SAMPLES];
+    private int ringIndex;
+    private int frameFill;
+    private volatile boolean cancelled;
+
+    public PcmDecoder(Context context, Uri audioUri) {
+        this.context = context.getApplicationContext();
+        this.audioUri = audioUri;
+    }
+
+    /**
+     * Stop a decode in progress; {@link #decode} then throws {@link InterruptedIOException}
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Decode the whole file on the calling thread, which must not be the main thread
+     * @param listener Receives progress each time the percentage changes, or null
+     * @param consumers Receive every frame, in the order given
+     * @throws InterruptedIOException If the decode was cancelled
+     * @throws IOException If the file cannot be decoded, or a consumer failed
+     */
+    public void decode(ProgressListener listener, PcmConsumer... consumers) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            extractor.setDataSource(context, audioUri, null);
+            int track = selectAudioTrack(extractor);
+            if (track < 0) {
+                throw new IOException("No audio track in " + audioUri);
+            }
+            extractor.selectTrack(track);
+
+            MediaFormat format = extractor.getTrackFormat(track);
+            long durationUs = format.containsKey(MediaFormat.KEY_DURATION)
+                    ? format.getLong(MediaFormat.KEY_DURATION) : 0;
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+
+            int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            int channels = Math.max(1, format.getInteger(MediaFormat.KEY_CHANNEL_COUNT));
+            boolean floatPcm = false;
+            for (PcmConsumer consumer : consumers) {
+                consumer.onFormat(sampleRate);
+            }
+
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            boolean inputDone = false;
+            boolean outputDone = false;
+            int lastPercent = -1;
+
+            while (!outputDone) {
+                if (cancelled) {
+                    throw new InterruptedIOException("Decoding cancelled");
+                }
+
+                if (!inputDone) {
+                    int inputIndex = codec.dequeueInputBuffer(CODEC_TIMEOUT_US);
+                    if (inputIndex >= 0) {
+                        ByteBuffer input = codec.getInputBuffer(inputIndex);
+                        int size = extractor.readSampleData(input, 0);
+                        if (size < 0) {
+                            codec.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            codec.queueInputBuffer(inputIndex, 0, size, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+
+                int outputIndex = codec.dequeueOutputBuffer(info, CODEC_TIMEOUT_US);
+                if (outputIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    MediaFormat outputFormat = codec.getOutputFormat();
+                    channels = Math.max(1, outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT));
+                    floatPcm = outputFormat.containsKey(MediaFormat.KEY_PCM_ENCODING)
+                            && outputFormat.getInteger(MediaFormat.KEY_PCM_ENCODING) == AudioFormat.ENCODING_PCM_FLOAT;
+                    int outputRate = outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                    if (outputRate != sampleRate) {
+                        // Frames so far were at the old rate, so deliver them before switching
+                        flush(consumers);
+                        sampleRate = outputRate;
+                        for (PcmConsumer consumer : consumers) {
+                            consumer.onFormat(sampleRate);
+                        }
+                    }
+                } else if (outputIndex >= 0) {
+                    if (info.size > 0) {
+                        ByteBuffer output = codec.getOutputBuffer(outputIndex);
+                        output.position(info.offset);
+                        output.limit(info.offset + info.size);
+                        output.order(ByteOrder.nativeOrder());
+                        mixDown(output, channels, floatPcm, consumers);
+                    }
+                    codec.releaseOutputBuffer(outputIndex, false);
+                    outputDone = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+
+                    if (listener != null && durationUs > 0) {
+                        int percent = (int) Math.min(100, info.presentationTimeUs * 100 / durationUs);
+                        if (percent > lastPercent) {
+                            lastPercent = percent;
+                            listener.onProgress(percent);
+                        }
+                    }
+                }
+            }
+            flush(consumers);
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            // Codec failures, or a format the extractor or codec does not support
+            throw new IOException("Error decoding " + audioUri, e);
+        } finally {
+            if (codec != null) {
+                try {
+                    codec.stop();
+                } catch (IllegalStateException e) {
+                    Log.w(TAG, "Error stopping decoder", e);
+                }
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+
+    /**
+     * Average the channels of each interleaved sample into the current frame
+     */
+    private void mixDown(ByteBuffer output, int channels, boolean floatPcm, PcmConsumer[] consumers)
+            throws IOException {
+        float[] frame = ring[ringIndex];
+        if (floatPcm) {
+            while (output.remaining() >= channels * 4) {
+                float mixed = 0;
+                for (int c = 0; c < channels; c++) {
+                    mixed += output.getFloat();
+                }
+                frame[frameFill++] = mixed / channels;
+                if (frameFill == FRAME_SAMPLES) {
+                    flush(consumers);
+                    frame = ring[ringIndex];
+                }
+            }
+        } else {
+            float scale = 1f / (channels * 32768f);
+            while (output.remaining() >= channels * 2) {
+                int mixed = 0;
+                for (int c = 0; c < channels; c++) {
+                    mixed += output.getShort();
+                }
+                frame[frameFill++] = mixed * scale;
+                if (frameFill == FRAME_SAMPLES) {
+                    flush(consumers);
+                    frame = ring[ringIndex];
+                }
+            }
+        }
+    }
+
+    /**
+     * Hand the current frame to the consumers and move on to the next buffer in the ring
+     */
+    private void flush(PcmConsumer[] consumers) throws IOException {
+        if (frameFill == 0) {
+            return;
+        }
+        float[] frame = ring[ringIndex];
+        for (PcmConsumer consumer : consumers) {
+            consumer.onFrame(frame, frameFill);
+        }
+        ringIndex = (ringIndex + 1) % RING_FRAMES;
+        frameFill = 0;
+    }
+
+    private static int selectAudioTrack(MediaExtractor extractor) {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith("audio/")) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
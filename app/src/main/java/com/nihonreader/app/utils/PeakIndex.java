@@ -0,0 +1,231 @@
+package com.nihonreader.app.utils;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Downsampled waveform of a story's audio, for drawing and for finding silence without
+ * decoding the audio again.
+ *
+ * The index holds the lowest and highest sample of every {@link #PEAK_MS} ms, each stored
+ * as a signed byte. It is written next to the audio at import as {@code <story>.peaks}
+ * and read through a memory map, so opening it is instant and only the pages being drawn
+ * are loaded.
+ */
+public class PeakIndex {
+
+    public static final int PEAK_MS = 10;
+
+    private static final int MAGIC = 0x4e52504b; // "NRPK"
+    private static final int VERSION = 1;
+    // Magic, version, peak length and peak count
+    private static final int HEADER_BYTES = 16;
+    private static final String EXTENSION = ".peaks";
+    // Peaks averaged together when judging how quiet a moment is
+    private static final int QUIET_WINDOW_PEAKS = 5;
+
+    private final ByteBuffer peaks;
+    private final int count;
+
+    private PeakIndex(ByteBuffer peaks, int count) {
+        this.peaks = peaks;
+        this.count = count;
+    }
+
+    /**
+     * The peak file that belongs to an audio file
+     */
+    public static File fileFor(File audioFile) {
+        String name = audioFile.getName();
+        int dot = name.lastIndexOf('.');
+        String baseName = dot > 0 ? name.substring(0, dot) : name;
+        return new File(audioFile.getParentFile(), baseName + EXTENSION);
+    }
+
+    /**
+     * Decode an audio file and write its peak file, replacing any existing one
+     */
+    public static void generate(Context context, File audioFile) throws IOException {
+        Writer writer = new Writer(audioFile);
+        try {
+            new PcmDecoder(context, Uri.fromFile(audioFile)).decode(null, writer);
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Map a peak file into memory
+     * @throws IOException If the file is missing or not a peak file
+     */
+    public static PeakIndex open(File peakFile) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(peakFile, "r");
+             FileChannel channel = file.getChannel()) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC
+                    || buffer.getInt(4) != VERSION || buffer.getInt(8) != PEAK_MS) {
+                throw new IOException("Not a peak file: " + peakFile);
+            }
+            int count = buffer.getInt(12);
+            if (count < 0 || HEADER_BYTES + 2L * count > buffer.capacity()) {
+                throw new IOException("Truncated peak file: " + peakFile);
+            }
+            return new PeakIndex(buffer, count);
+        }
+    }
+
+    /**
+     * Number of peaks, one per {@link #PEAK_MS} ms of audio
+     */
+    public int size() {
+        return count;
+    }
+
+    public long getDurationMs() {
+        return (long) count * PEAK_MS;
+    }
+
+    /**
+     * Lowest sample of a peak, from -128 to 127
+     */
+    public int getMin(int index) {
+        return peaks.get(HEADER_BYTES + 2 * index);
+    }
+
+    /**
+     * Highest sample of a peak, from -128 to 127
+     */
+    public int getMax(int index) {
+        return peaks.get(HEADER_BYTES + 2 * index + 1);
+    }
+
+    /**
+     * Find the quietest moment within a window around a time, preferring the one closest
+     * to the time when several are equally quiet
+     * @return The time of the quietest moment, in ms
+     */
+    public long snapToSilence(long timeMs, long windowMs) {
+        if (count == 0) {
+            return timeMs;
+        }
+
+        int center = (int) Math.max(0, Math.min(count - 1, timeMs / PEAK_MS));
+        int reach = (int) (windowMs / PEAK_MS);
+        int from = Math.max(0, center - reach);
+        int to = Math.min(count, center + reach + 1);
+
+        int bestIndex = center;
+        long bestLoudness = Long.MAX_VALUE;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = from; i < to; i++) {
+            long loudness = 0;
+            int windowEnd = Math.min(count, i + QUIET_WINDOW_PEAKS);
+            for (int j = Math.max(0, i - QUIET_WINDOW_PEAKS); j < windowEnd; j++) {
+                loudness += getMax(j) - getMin(j);
+            }
+            int distance = Math.abs(i - center);
+            if (loudness < bestLoudness || (loudness == bestLoudness && distance < bestDistance)) {
+                bestLoudness = loudness;
+                bestIndex = i;
+                bestDistance = distance;
+            }
+        }
+        return (long) bestIndex * PEAK_MS + PEAK_MS / 2;
+    }
+
+    /**
+     * Collects the peaks of decoded audio into the peak file of an audio file, so the peaks
+     * can be written during a decode done for something else. The file is written under a
+     * temporary name and only renamed into place by {@link #finish()}; always call
+     * {@link #close()} afterwards.
+     */
+    public static class Writer implements PcmDecoder.PcmConsumer {
+        private final File peakFile;
+        private final File tempFile;
+        private final DataOutputStream output;
+        private int samplesPerPeak = 1;
+        private int peakSamples;
+        private float min;
+        private float max;
+        private int count;
+
+        public Writer(File audioFile) throws IOException {
+            this.peakFile = fileFor(audioFile);
+            this.tempFile = new File(peakFile.getPath() + ".tmp");
+            this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(PEAK_MS);
+            // Count, filled in by finish()
+            output.writeInt(0);
+        }
+
+        @Override
+        public void onFormat(int sampleRate) {
+            samplesPerPeak = Math.max(1, sampleRate * PEAK_MS / 1000);
+        }
+
+        @Override
+        public void onFrame(float[] samples, int sampleCount) throws IOException {
+            for (int i = 0; i < sampleCount; i++) {
+                float sample = samples[i];
+                if (peakSamples == 0) {
+                    min = sample;
+                    max = sample;
+                } else if (sample < min) {
+                    min = sample;
+                } else if (sample > max) {
+                    max = sample;
+                }
+                if (++peakSamples == samplesPerPeak) {
+                    writePeak();
+                }
+            }
+        }
+
+        private void writePeak() throws IOException {
+            output.writeByte(quantize(min));
+            output.writeByte(quantize(max));
+            count++;
+            peakSamples = 0;
+        }
+
+        private static int quantize(float sample) {
+            return Math.round(Math.max(-1f, Math.min(1f, sample)) * 127);
+        }
+
+        public void finish() throws IOException {
+            if (peakSamples > 0) {
+                writePeak();
+            }
+            output.close();
+
+            try (RandomAccessFile file = new RandomAccessFile(tempFile, "rw")) {
+                file.seek(12);
+                file.writeInt(count);
+            }
+            if (!tempFile.renameTo(peakFile)) {
+                throw new IOException("Could not write " + peakFile);
+            }
+        }
+
+        public void close() {
+            try {
+                output.close();
+            } catch (IOException ignored) {
+                // Already closed by finish()
+            }
+            tempFile.delete();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.nihonreader.app.utils;
+
+import android.media.MediaPlayer;
+import android.view.Choreographer;
+
+/**
+ * Playback position for driving the UI from display frames instead of a polling timer.
+ *
+ * The MediaPlayer is asked for its position when the clock starts or is synced, and again
+ * every {@link #RESYNC_MS} ms to correct drift; in between the position is interpolated
+ * from that reading and the frame time. The clock does not wake on every frame: the
+ * listener returns the position of its next change, such as a segment or word boundary,
+ * and the clock sleeps until the frame on which that position is reached.
+ * Must be used on the main thread.
+ */
+public class PlaybackClock implements Choreographer.FrameCallback {
+
+    private static final long RESYNC_MS = 1000;
+    private static final long FRAME_MS = 16;
+    private static final long NANOS_PER_MS = 1000000;
+
+    /**
+     * Receives the position on the frames the clock wakes for
+     */
+    public interface Listener {
+        /**
+         * @param positionMs The interpolated playback position
+         * @return The position at which the listener next needs to be called
+         */
+        long onPosition(long positionMs);
+    }
+
+    private final Choreographer choreographer = Choreographer.getInstance();
+    private final MediaPlayer mediaPlayer;
+    private final Listener listener;
+    private boolean running;
+    // Last position read from the player, and when it was read
+    private long anchorPositionMs;
+    private long anchorNanos;
+
+    public PlaybackClock(MediaPlayer mediaPlayer, Listener listener) {
+        this.mediaPlayer = mediaPlayer;
+        this.listener = listener;
+    }
+
+    /**
+     * Start following playback; the listener is called on the next frame
+     */
+    public void start() {
+        running = true;
+        sync();
+    }
+
+    public void stop() {
+        running = false;
+        choreographer.removeFrameCallback(this);
+    }
+
+    /**
+     * Read the position from the player again, e.g. after a seek, and call the listener
+     * on the next frame
+     */
+    public void sync() {
+        anchorPositionMs = mediaPlayer.getCurrentPosition();
+        anchorNanos = System.nanoTime();
+        if (running) {
+            choreographer.removeFrameCallback(this);
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!running) {
+            return;
+        }
+
+        if (frameTimeNanos - anchorNanos >= RESYNC_MS * NANOS_PER_MS) {
+            anchorPositionMs = mediaPlayer.getCurrentPosition();
+            anchorNanos = System.nanoTime();
+        }
+        // The frame time can be slightly older than the anchor just taken
+        long positionMs = anchorPositionMs + Math.max(0, frameTimeNanos - anchorNanos) / NANOS_PER_MS;
+        long nextMs = listener.onPosition(positionMs);
+        if (!running) {
+            // Stopped by the listener
+            return;
+        }
+
+        // Wake on the frame before the next change at the latest, and at least once per resync
+        long delayMs = Math.min(nextMs - positionMs, RESYNC_MS) - FRAME_MS;
+        if (delayMs > 0) {
+            choreographer.postFrameCallbackDelayed(this, delayMs);
+        } else {
+            choreographer.postFrameCallback(this);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.nihonreader.app.utils;
+
+import android.content.Context;
+import android.net.Uri;
+
+import com.nihonreader.app.models.AudioSegment;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Suggests segment times for the sentences of a story from the pauses in its recording,
+ * for imports without a timing file.
+ *
+ * The audio is decoded once and measured for loudness, and silences long enough to be
+ * pauses are found with the same threshold as {@link ForcedAligner}. The N - 1 longest
+ * pauses become the boundaries between N sentences, in time order. If the recording has
+ * fewer pauses than that, the longest segments are split in half until there are enough.
+ */
+public class SegmentBoundarySuggester {
+
+    private SegmentBoundarySuggester() {
+    }
+
+    /**
+     * Decode the audio and give each sentence a start and end time. Must not be called on
+     * the main thread.
+     * @param extraConsumers Also receive the decoded audio, to analyze it in the same pass
+     * @throws IOException If the audio cannot be decoded
+     */
+    public static List<AudioSegment> suggest(Context context, Uri audioUri, List<String> sentences,
+                                             PcmDecoder.PcmConsumer... extraConsumers) throws IOException {
+        LevelMeter meter = new LevelMeter();
+        PcmDecoder.PcmConsumer[] consumers = new PcmDecoder.PcmConsumer[extraConsumers.length + 1];
+        consumers[0] = meter;
+        System.arraycopy(extraConsumers, 0, consumers, 1, extraConsumers.length);
+        new PcmDecoder(context, audioUri).decode(null, consumers);
+        long[] boundaries = suggestBoundaries(meter.getLevels(), sentences.size());
+
+        List<AudioSegment> segments = new ArrayList<>(sentences.size());
+        for (int i = 0; i < sentences.size(); i++) {
+            segments.add(new AudioSegment(boundaries[i], boundaries[i + 1], sentences.get(i)));
+        }
+        return segments;
+    }
+
+    /**
+     * Split a recording into a number of segments at its longest pauses
+     * @param levels Loudness of each frame of the recording, in dB
+     * @return The start of each segment in ms, followed by the end of the recording
+     */
+    static long[] suggestBoundaries(float[] levels, int segmentCount) {
+        long[] boundaries = new long[segmentCount + 1];
+        long totalMs = (long) levels.length * ForcedAligner.FRAME_MS;
+        boundaries[segmentCount] = totalMs;
+        if (segmentCount <= 1) {
+            return boundaries;
+        }
+
+        List<ForcedAligner.Pause> pauses = new ArrayList<>();
+        float threshold = ForcedAligner.silenceThreshold(levels);
+        if (!Float.isNaN(threshold)) {
+            for (ForcedAligner.Pause pause : ForcedAligner.findPauses(levels, threshold, 0, levels.length)) {
+                // Silence before the first words is not a boundary between sentences
+                if (pause.startFrame > 0) {
+                    pauses.add(pause);
+                }
+            }
+        }
+        Collections.sort(pauses, (a, b) -> Long.compare(b.getDurationMs(), a.getDurationMs()));
+
+        int needed = segmentCount - 1;
+        int found = Math.min(needed, pauses.size());
+        long[] cuts = new long[needed];
+        for (int i = 0; i < found; i++) {
+            cuts[i] = pauses.get(i).getCenterMs();
+        }
+        Arrays.sort(cuts, 0, found);
+
+        // Not enough pauses, so halve the longest segments
+        for (int count = found; count < needed; count++) {
+            int longest = 0;
+            long longestLength = -1;
+            for (int i = 0; i <= count; i++) {
+                long start = i == 0 ? 0 : cuts[i - 1];
+                long end = i == count ? totalMs : cuts[i];
+                if (end - start > longestLength) {
+                    longestLength = end - start;
+                    longest = i;
+                }
+            }
+            long start = longest == 0 ? 0 : cuts[longest - 1];
+            System.arraycopy(cuts, longest, cuts, longest + 1, count - longest);
+            cuts[longest] = start + longestLength / 2;
+        }
+
+        System.arraycopy(cuts, 0, boundaries, 1, needed);
+        return boundaries;
+    }
+}
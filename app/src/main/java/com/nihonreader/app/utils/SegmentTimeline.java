@@ -0,0 +1,163 @@
+package com.nihonreader.app.utils;
+
+import com.nihonreader.app.models.AudioSegment;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Position to segment index for playback sync.
+ *
+ * Segment times are copied once into primitive arrays sorted by start time, so a lookup is
+ * a binary search instead of a scan over every segment. Playback mostly moves forward a
+ * little at a time, so the last hit and its successor are checked before searching.
+ */
+public class SegmentTimeline {
+
+    private final long[] starts;
+    private final long[] ends;
+    // Largest end time among the segments up to each sorted position, to handle overlaps
+    private final long[] maxEnds;
+    // Original segment index for each sorted position
+    private final int[] indices;
+    private int lastHit = -1;
+
+    public SegmentTimeline(List<AudioSegment> segments) {
+        this(startsOf(segments), endsOf(segments));
+    }
+
+    /**
+     * @param segmentStarts Start times in segment index order
+     * @param segmentEnds End times in segment index order
+     */
+    public SegmentTimeline(long[] segmentStarts, long[] segmentEnds) {
+        int count = segmentStarts.length;
+        starts = new long[count];
+        ends = new long[count];
+        maxEnds = new long[count];
+        indices = new int[count];
+
+        // Sort by start time, keeping the original order for equal starts
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(segmentStarts[a], segmentStarts[b]));
+
+        long maxEnd = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            starts[i] = segmentStarts[order[i]];
+            ends[i] = segmentEnds[order[i]];
+            maxEnd = Math.max(maxEnd, ends[i]);
+            maxEnds[i] = maxEnd;
+            indices[i] = order[i];
+        }
+    }
+
+    private static long[] startsOf(List<AudioSegment> segments) {
+        long[] values = new long[segments != null ? segments.size() : 0];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = segments.get(i).getStart();
+        }
+        return values;
+    }
+
+    private static long[] endsOf(List<AudioSegment> segments) {
+        long[] values = new long[segments != null ? segments.size() : 0];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = segments.get(i).getEnd();
+        }
+        return values;
+    }
+
+    /**
+     * Number of segments in the timeline
+     */
+    public int size() {
+        return starts.length;
+    }
+
+    /**
+     * Find the segment playing at the given time
+     * @param time Playback position in milliseconds
+     * @return The original index of the segment, or -1 if no segment covers the time
+     */
+    public int findSegment(long time) {
+        int hit = lastHit;
+        if (hit >= 0) {
+            // Fast path: still in the same segment, or just moved into the next one
+            if (contains(hit, time)) {
+                return indices[hit];
+            }
+            if (hit + 1 < starts.length && contains(hit + 1, time)) {
+                lastHit = hit + 1;
+                return indices[hit + 1];
+            }
+        }
+
+        int position = search(time);
+        if (position >= 0) {
+            lastHit = position;
+            return indices[position];
+        }
+        return -1;
+    }
+
+    /**
+     * The next time after the given one at which {@link #findSegment} may give another
+     * answer, so playback can be woken just for it
+     * @return The time in milliseconds, or Long.MAX_VALUE if nothing changes after it
+     */
+    public long nextBoundary(long time) {
+        // First segment starting after the time
+        int low = 0;
+        int high = starts.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] <= time) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        long next = low < starts.length ? starts[low] : Long.MAX_VALUE;
+
+        // Ends of earlier segments that may still be playing
+        for (int i = low - 1; i >= 0 && maxEnds[i] > time; i--) {
+            if (ends[i] > time && ends[i] < next) {
+                next = ends[i];
+            }
+        }
+        return next;
+    }
+
+    private boolean contains(int position, long time) {
+        return time >= starts[position] && time < ends[position];
+    }
+
+    private int search(long time) {
+        // Last segment starting at or before the time
+        int low = 0;
+        int high = starts.length - 1;
+        int candidate = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] <= time) {
+                candidate = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        // Walk back over earlier segments that may still overlap the time,
+        // preferring the one that comes first in the story like a linear scan would
+        int found = -1;
+        for (int i = candidate; i >= 0 && maxEnds[i] > time; i--) {
+            if (time < ends[i] && (found < 0 || indices[i] < indices[found])) {
+                found = i;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,172 @@
+package com.nihonreader.app.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Sentence boundaries of a text, found in a single pass over its code points.
+ *
+ * A sentence ends after a run of terminators (。！？… and their ASCII forms), together
+ * with any closing brackets or quotes that directly follow it, and at every line break.
+ * A closing 」 or 』 also ends a sentence on its own. Boundaries are kept as offsets into
+ * the original text with surrounding whitespace excluded; substrings are only built when
+ * a sentence is asked for.
+ */
+public class SentenceBoundaries {
+
+    private static final BitSet TERMINATORS = codePoints("。！？…‥.!?．｡");
+    private static final BitSet CLOSING_BRACKETS = codePoints("」』）)］]｝}〕〉》】\"'”’");
+    // Closing brackets that end a sentence even without a terminator before them
+    private static final BitSet SENTENCE_CLOSERS = codePoints("」』");
+
+    private static final int STATE_TEXT = 0;
+    private static final int STATE_TERMINATED = 1;
+
+    private final String text;
+    // Start and end offsets of each sentence, interleaved
+    private int[] offsets = new int[16];
+    private int count;
+    private boolean foundTerminator;
+
+    private SentenceBoundaries(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Find the sentences of a text
+     */
+    public static SentenceBoundaries find(String text) {
+        SentenceBoundaries boundaries = new SentenceBoundaries(text != null ? text : "");
+        boundaries.scan();
+        return boundaries;
+    }
+
+    private void scan() {
+        int state = STATE_TEXT;
+        int sentenceStart = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            int codePoint = text.codePointAt(i);
+
+            if (codePoint == '\n') {
+                add(sentenceStart, i);
+                sentenceStart = i + 1;
+                state = STATE_TEXT;
+                foundTerminator = true;
+                i++;
+                continue;
+            }
+
+            if (state == STATE_TERMINATED
+                    && !TERMINATORS.get(codePoint) && !CLOSING_BRACKETS.get(codePoint)) {
+                // The sentence ended just before this character, which starts the next one
+                add(sentenceStart, i);
+                sentenceStart = i;
+                state = STATE_TEXT;
+            }
+
+            if (state == STATE_TEXT
+                    && ((TERMINATORS.get(codePoint) && !isDecimalPoint(i, codePoint))
+                    || SENTENCE_CLOSERS.get(codePoint))) {
+                state = STATE_TERMINATED;
+                foundTerminator = true;
+            }
+
+            i += Character.charCount(codePoint);
+        }
+        add(sentenceStart, length);
+    }
+
+    /**
+     * Record a sentence, trimmed of surrounding whitespace; blank sentences are dropped
+     */
+    private void add(int start, int end) {
+        while (start < end && isSpace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && isSpace(text.charAt(end - 1))) {
+            end--;
+        }
+        if (start == end) {
+            return;
+        }
+
+        if (count * 2 + 2 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[count * 2] = start;
+        offsets[count * 2 + 1] = end;
+        count++;
+    }
+
+    /**
+     * Number of non-empty sentences
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Whether any terminator or line break was found, as opposed to the whole text
+     * being one unterminated run
+     */
+    public boolean foundTerminator() {
+        return foundTerminator;
+    }
+
+    public int start(int sentence) {
+        return offsets[sentence * 2];
+    }
+
+    public int end(int sentence) {
+        return offsets[sentence * 2 + 1];
+    }
+
+    /**
+     * Start and end offsets of every sentence into the original text, interleaved
+     */
+    public int[] toOffsets() {
+        return Arrays.copyOf(offsets, count * 2);
+    }
+
+    /**
+     * Build the text of one sentence
+     */
+    public String sentence(int sentence) {
+        return text.substring(start(sentence), end(sentence));
+    }
+
+    /**
+     * Build the text of every sentence
+     */
+    public List<String> toList() {
+        List<String> sentences = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            sentences.add(sentence(i));
+        }
+        return sentences;
+    }
+
+    private static boolean isSpace(char c) {
+        // String.trim() whitespace plus the ideographic space used for indents
+        return c <= ' ' || c == '　';
+    }
+
+    private boolean isDecimalPoint(int index, int codePoint) {
+        return codePoint == '.' && index > 0 && index + 1 < text.length()
+                && Character.isDigit(text.charAt(index - 1)) && Character.isDigit(text.charAt(index + 1));
+    }
+
+    private static BitSet codePoints(String characters) {
+        BitSet set = new BitSet(0x10000);
+        for (int i = 0; i < characters.length(); ) {
+            int codePoint = characters.codePointAt(i);
+            set.set(codePoint);
+            i += Character.charCount(codePoint);
+        }
+        return set;
+    }
+}
@@ -1,174 +1,207 @@
 package com.nihonreader.app.utils;
 
 import android.content.Context;
-import android.media.MediaMetadataRetriever;
 import android.net.Uri;
-import android.os.AsyncTask;
-import android.speech.SpeechRecognizer;
-import android.speech.RecognitionListener;
-import android.speech.RecognizerIntent;
-import android.content.Intent;
-import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.util.Log;
 
 import com.nihonreader.app.models.AudioSegment;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
 
 /**
- * Service for aligning speech with text using Android's speech recognition
+ * Service for aligning speech with text, entirely on the device.
+ *
+ * The audio is streamed through a {@link PcmDecoder} and reduced to one loudness level per
+ * {@link ForcedAligner#FRAME_MS} ms as it is decoded, so only the levels are kept in memory.
+ * The sentences are then fitted to the pauses in the recording by {@link ForcedAligner}.
+ *
+ * All of the work happens on worker threads, at most as many as the thread budget. With a
+ * budget of two or more the text is tokenized for mora counts while the audio is decoding.
+ * Only progress and results are passed to the main thread.
  */
 public class SpeechAlignmentService {
-    
+
     private static final String TAG = "SpeechAlignmentService";
-    
-    private Context context;
-    private SpeechRecognizer speechRecognizer;
-    private AlignmentCallback callback;
-    private List<String> textSegments;
-    private List<AudioSegment> alignedSegments;
-    private int currentSegmentIndex = 0;
-    private long audioStartTime = 0;
-    private long audioDuration = 0;
-    
+
+    // Share of the progress taken by decoding; fitting the sentences takes the rest
+    private static final int DECODE_PROGRESS_PERCENT = 90;
+
+    private final Context context;
+    private final int threadBudget;
+    private final ExecutorService executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile boolean cancelled;
+
     public SpeechAlignmentService(Context context) {
-        this.context = context;
-        if (SpeechRecognizer.isRecognitionAvailable(context)) {
-            speechRecognizer = SpeechRecognizer.createSpeechRecognizer(context);
-        }
+        this(context, defaultThreadBudget());
+    }
+
+    /**
+     * @param threadBudget The most worker threads the service may use at once
+     */
+    public SpeechAlignmentService(Context context, int threadBudget) {
+        this.context = context.getApplicationContext();
+        this.threadBudget = Math.max(1, threadBudget);
+        this.executor = Executors.newFixedThreadPool(this.threadBudget, runnable -> {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "speech-alignment");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static int defaultThreadBudget() {
+        // Leave a core for the UI
+        return Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
     }
-    
+
     /**
-     * Align text with audio using speech recognition
+     * Align text with audio on a worker thread
      * @param audioUri URI of the audio file
      * @param text Full text content
-     * @param callback Callback to receive results
+     * @param callback Callback to receive results on the main thread; nothing is delivered
+     *                 after {@link #cancel()}
      */
-    public void alignTextWithAudio(Uri audioUri, String text, AlignmentCallback callback) throws IOException {
-        if (speechRecognizer == null) {
-            callback.onAlignmentFailed("Speech recognition not available on this device");
-            return;
+    public void alignTextWithAudio(Uri audioUri, String text, AlignmentCallback callback) {
+        executor.execute(() -> {
+            try {
+                List<String> sentences = JapaneseTextUtils.splitIntoSentences(text);
+                List<AudioSegment> segments = align(audioUri, sentences, percent -> postToMain(
+                        () -> callback.onAlignmentProgress(percent)));
+                postToMain(() -> callback.onAlignmentComplete(segments));
+            } catch (InterruptedIOException e) {
+                Log.i(TAG, "Alignment cancelled");
+            } catch (IOException e) {
+                Log.e(TAG, "Error aligning audio", e);
+                postToMain(() -> callback.onAlignmentFailed("Failed to align audio: " + e.getMessage()));
+            }
+        });
+    }
+
+    private void postToMain(Runnable runnable) {
+        mainHandler.post(() -> {
+            if (!cancelled) {
+                runnable.run();
+            }
+        });
+    }
+
+    /**
+     * Align sentences with audio, decoding on the calling thread, which must not be the
+     * main thread
+     * @param audioUri URI of the audio file
+     * @param sentences The sentences, in reading order
+     * @param listener Receives progress on the calling thread each time the percentage changes
+     * @param extraConsumers Also receive the decoded audio, to analyze it in the same pass
+     * @return One segment per sentence
+     * @throws InterruptedIOException If the service was cancelled
+     * @throws IOException If the audio cannot be decoded
+     */
+    public List<AudioSegment> align(Uri audioUri, List<String> sentences, ProgressListener listener,
+                                    PcmDecoder.PcmConsumer... extraConsumers) throws IOException {
+        List<AudioSegment> segments = new ArrayList<>();
+        if (sentences.isEmpty()) {
+            return segments;
         }
-        
-        this.callback = callback;
-        
-        // Split text into sentences
-        textSegments = splitTextIntoSentences(text);
-        alignedSegments = new ArrayList<>();
-        currentSegmentIndex = 0;
-        
-        // Get audio duration
-        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
-        try {
-            retriever.setDataSource(context, audioUri);
-            String durationStr = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
-            audioDuration = Long.parseLong(durationStr);
-        } catch (Exception e) {
-            Log.e(TAG, "Error getting audio duration", e);
-            callback.onAlignmentFailed("Failed to get audio duration");
-            return;
-        } finally {
-            retriever.release();
+
+        long traceToken = Tracer.ENABLED ? Tracer.begin(Tracer.AUDIO) : 0;
+        FutureTask<int[]> moraCount = new FutureTask<>(() -> ForcedAligner.countMorae(sentences));
+        if (threadBudget > 1) {
+            executor.execute(moraCount);
         }
-        
-        // Since SpeechRecognizer must be run on the main UI thread,
-        // use Handler to ensure processing happens on the main thread
-        android.os.Handler mainHandler = new android.os.Handler(context.getMainLooper());
-        mainHandler.post(() -> processNextSegment(audioUri));
-    }
-    
-    private void processNextSegment(Uri audioUri) {
-        // Ensure we're on the main thread
-        if (android.os.Looper.myLooper() != android.os.Looper.getMainLooper()) {
-            android.os.Handler mainHandler = new android.os.Handler(context.getMainLooper());
-            mainHandler.post(() -> processNextSegment(audioUri));
-            return;
+
+        float[] levels = decodeLevels(audioUri, listener, extraConsumers);
+
+        // Counts here if no worker has picked the task up; otherwise waits for the worker
+        moraCount.run();
+        int[] morae = getResult(moraCount);
+        checkCancelled();
+
+        long[] boundaries = ForcedAligner.align(levels, morae);
+        for (int i = 0; i < sentences.size(); i++) {
+            segments.add(new AudioSegment(boundaries[i], boundaries[i + 1], sentences.get(i)));
         }
-        
-        if (currentSegmentIndex >= textSegments.size()) {
-            // All segments processed
-            callback.onAlignmentComplete(alignedSegments);
-            return;
+
+        if (listener != null) {
+            listener.onProgress(100);
         }
-        
-        // Calculate chunk duration based on text length
-        long chunkDuration = estimateSegmentDuration(textSegments.get(currentSegmentIndex));
-        
-        if (audioStartTime + chunkDuration > audioDuration) {
-            chunkDuration = audioDuration - audioStartTime;
+        if (Tracer.ENABLED && Tracer.isEnabled(Tracer.AUDIO)) {
+            Tracer.end(Tracer.AUDIO, TAG, "Aligning " + sentences.size() + " sentences", traceToken);
         }
-        
-        if (chunkDuration <= 0) {
-            // No more audio to process
-            callback.onAlignmentComplete(alignedSegments);
-            return;
+        return segments;
+    }
+
+    private static <T> T getResult(FutureTask<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Alignment interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("Error counting morae", e.getCause());
         }
-        
-        // Setup speech recognizer
-        Intent recognizerIntent = new Intent(RecognizerIntent.ACTION_RECOGNIZE_SPEECH);
-        recognizerIntent.putExtra(RecognizerIntent.EXTRA_LANGUAGE_MODEL, RecognizerIntent.LANGUAGE_MODEL_FREE_FORM);
-        recognizerIntent.putExtra(RecognizerIntent.EXTRA_LANGUAGE, Locale.getDefault());
-        recognizerIntent.putExtra(RecognizerIntent.EXTRA_PARTIAL_RESULTS, true);
-        
-        // TODO: In a real implementation, you would need to:
-        // 1. Extract the audio chunk from audioStartTime to audioStartTime + chunkDuration
-        // 2. Play this audio chunk while recognizing speech
-        // 3. Match recognized text with expected text from textSegments
-        
-        // For now, we'll simulate the results
-        simulateRecognitionResults(audioStartTime, chunkDuration);
     }
-    
-    private void simulateRecognitionResults(long startTime, long duration) {
-        // This is a simplified simulation - in a real app, you'd actually process the audio
-        long endTime = startTime + duration;
-        String segmentText = textSegments.get(currentSegmentIndex);
-        
-        // Create audio segment
-        AudioSegment segment = new AudioSegment(startTime, endTime, segmentText);
-        alignedSegments.add(segment);
-        
-        // Move to next segment
-        audioStartTime = endTime;
-        currentSegmentIndex++;
-        
-        // Process next segment (we're already on the main thread, but this is safe)
-        android.os.Handler mainHandler = new android.os.Handler(context.getMainLooper());
-        mainHandler.post(() -> processNextSegment(null)); // In real implementation, you'd pass the audioUri
+
+    private void checkCancelled() throws InterruptedIOException {
+        if (cancelled) {
+            throw new InterruptedIOException("Alignment cancelled");
+        }
     }
-    
+
     /**
-     * Split text into sentences
+     * Decode the audio and measure its loudness in fixed-length frames
      */
-    private List<String> splitTextIntoSentences(String text) {
-        List<String> sentences = new ArrayList<>();
-        
-        // Split by punctuation followed by space and capital letter
-        // This is a simple implementation and might need enhancement for languages like Japanese
-        String[] parts = text.split("(?<=[.!?])\\s+(?=[A-Z])");
-        
-        for (String part : parts) {
-            if (!part.trim().isEmpty()) {
-                sentences.add(part.trim());
+    private float[] decodeLevels(Uri audioUri, ProgressListener listener,
+                                 PcmDecoder.PcmConsumer[] extraConsumers) throws IOException {
+        LevelMeter meter = new LevelMeter() {
+            @Override
+            public void onFrame(float[] samples, int count) throws IOException {
+                checkCancelled();
+                super.onFrame(samples, count);
             }
+        };
+        PcmDecoder decoder = new PcmDecoder(context, audioUri);
+        PcmDecoder.ProgressListener decodeProgress = null;
+        if (listener != null) {
+            decodeProgress = new PcmDecoder.ProgressListener() {
+                private int lastPercent = -1;
+
+                @Override
+                public void onProgress(int percentComplete) {
+                    int percent = percentComplete * DECODE_PROGRESS_PERCENT / 100;
+                    if (percent > lastPercent) {
+                        lastPercent = percent;
+                        listener.onProgress(percent);
+                    }
+                }
+            };
         }
-        
-        return sentences;
+        PcmDecoder.PcmConsumer[] consumers = new PcmDecoder.PcmConsumer[extraConsumers.length + 1];
+        consumers[0] = meter;
+        System.arraycopy(extraConsumers, 0, consumers, 1, extraConsumers.length);
+        decoder.decode(decodeProgress, consumers);
+        return meter.getLevels();
     }
-    
+
     /**
-     * Estimate duration for a text segment
-     * A very simple estimation: ~100ms per character
+     * Receives the percentage of an alignment that is done
      */
-    private long estimateSegmentDuration(String text) {
-        // This is a very simplistic approach
-        // A better algorithm would consider average speaking rates for the language
-        return Math.max(1000, text.length() * 100);
+    public interface ProgressListener {
+        void onProgress(int percentComplete);
     }
-    
+
     /**
      * Callback interface for alignment results
      */
@@ -177,30 +210,20 @@ public class SpeechAlignmentService {
         void onAlignmentProgress(int percentComplete);
         void onAlignmentFailed(String errorMessage);
     }
-    
+
     /**
-     * Release resources
+     * Stop every alignment in progress; synchronous calls fail with
+     * {@link InterruptedIOException} and callbacks are not delivered
      */
-    public void release() {
-        if (speechRecognizer != null) {
-            speechRecognizer.destroy();
-            speechRecognizer = null;
-        }
+    public void cancel() {
+        cancelled = true;
     }
-    
+
     /**
-     * Note: For a production implementation, you might want to consider:
-     * 
-     * 1. Using a third-party library like Kaldi or Vosk that supports offline
-     *    speech recognition with timestamp information
-     * 
-     * 2. Using a cloud API like Google Cloud Speech-to-Text with word-level timestamps:
-     *    https://cloud.google.com/speech-to-text/docs/sync-recognize#speech-sync-recognize-java
-     * 
-     * 3. Using a forced alignment tool (may require a server component):
-     *    - Montreal Forced Aligner
-     *    - Gentle (https://github.com/lowerquality/gentle)
-     *    
-     * These approaches would provide more accurate alignment between text and audio.
+     * Cancel any alignment and stop the worker threads
      */
-}
\ No newline at end of file
+    public void release() {
+        cancel();
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,196 @@
+package com.nihonreader.app.utils;
+
+import com.nihonreader.app.models.AudioSegment;
+import com.nihonreader.app.models.JapaneseWord;
+import com.nihonreader.app.models.SegmentTokens;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact binary encoding of a segment's Kuromoji tokens, so the reader can bind
+ * pre-tokenized text without running the tokenizer again.
+ *
+ * Layout: token count, then for each token the gap from the previous token's end,
+ * the surface length, a part-of-speech id, the reading and the base form.
+ * Integers are unsigned varints; strings are a varint byte length followed by UTF-8.
+ * The surface itself is not stored since it can be sliced from the segment text.
+ */
+public class TokenCodec {
+
+    // IPADIC level 1 parts of speech, indexed by id
+    private static final String[] PARTS_OF_SPEECH = {
+            "名詞", "動詞", "形容詞", "副詞", "助詞", "助動詞", "記号",
+            "接続詞", "連体詞", "感動詞", "接頭詞", "フィラー", "その他"
+    };
+
+    // Marks a part of speech that is not in the table and is stored inline
+    private static final int POS_INLINE = 0xFF;
+
+    // Marks a base form identical to the surface
+    private static final int BASE_FORM_SAME_AS_SURFACE = 0;
+
+    /**
+     * Tokenize every segment of a story, in parallel, and encode the results
+     */
+    public static List<SegmentTokens> encodeSegments(String storyId, List<AudioSegment> segments) {
+        List<String> texts = new ArrayList<>(segments.size());
+        for (AudioSegment segment : segments) {
+            texts.add(segment.getText());
+        }
+
+        List<List<JapaneseWord>> segmentWords = BulkTokenizer.tokenizeAll(texts);
+        List<SegmentTokens> result = new ArrayList<>(segments.size());
+        for (int i = 0; i < segments.size(); i++) {
+            result.add(new SegmentTokens(storyId, i, encode(segmentWords.get(i))));
+        }
+        return result;
+    }
+
+    /**
+     * Encode a list of parsed words
+     */
+    public static byte[] encode(List<JapaneseWord> words) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(words.size() * 12 + 4);
+        writeVarint(out, words.size());
+
+        int previousEnd = 0;
+        for (JapaneseWord word : words) {
+            writeVarint(out, word.getStartIndex() - previousEnd);
+            writeVarint(out, word.getEndIndex() - word.getStartIndex());
+
+            int posId = indexOfPartOfSpeech(word.getPartOfSpeech());
+            out.write(posId);
+            if (posId == POS_INLINE) {
+                writeString(out, word.getPartOfSpeech());
+            }
+
+            writeString(out, word.getReading());
+            if (word.getSurface().equals(word.getBaseForm())) {
+                writeVarint(out, BASE_FORM_SAME_AS_SURFACE);
+            } else {
+                // Offset by one so that zero can mean "same as surface"
+                writeStringWithOffset(out, word.getBaseForm());
+            }
+
+            previousEnd = word.getEndIndex();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode words previously encoded for the given text
+     * @return The words, or null if the data does not fit the text
+     */
+    public static List<JapaneseWord> decode(String text, byte[] data) {
+        if (text == null || data == null) {
+            return null;
+        }
+
+        try {
+            return decode(text, new Reader(data));
+        } catch (RuntimeException e) {
+            // Truncated or corrupt data; the caller falls back to tokenizing
+            return null;
+        }
+    }
+
+    private static List<JapaneseWord> decode(String text, Reader reader) {
+        int count = reader.readVarint();
+        List<JapaneseWord> words = new ArrayList<>(count);
+
+        int previousEnd = 0;
+        for (int i = 0; i < count; i++) {
+            int start = previousEnd + reader.readVarint();
+            int end = start + reader.readVarint();
+            if (end > text.length()) {
+                return null;
+            }
+
+            int posId = reader.readByte();
+            String partOfSpeech = posId == POS_INLINE
+                    ? reader.readString()
+                    : PARTS_OF_SPEECH[Math.min(posId, PARTS_OF_SPEECH.length - 1)];
+
+            String surface = text.substring(start, end);
+            String reading = reader.readString();
+            int baseFormLength = reader.readVarint();
+            String baseForm = baseFormLength == BASE_FORM_SAME_AS_SURFACE
+                    ? surface
+                    : reader.readUtf8(baseFormLength - 1);
+
+            words.add(new JapaneseWord(surface, reading, baseForm, partOfSpeech, start, end));
+            previousEnd = end;
+        }
+        return words;
+    }
+
+    private static int indexOfPartOfSpeech(String partOfSpeech) {
+        for (int i = 0; i < PARTS_OF_SPEECH.length; i++) {
+            if (PARTS_OF_SPEECH[i].equals(partOfSpeech)) {
+                return i;
+            }
+        }
+        return POS_INLINE;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeStringWithOffset(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        writeVarint(out, bytes.length + 1);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Sequential reader over encoded token data
+     */
+    private static class Reader {
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int readByte() {
+            return data[position++] & 0xFF;
+        }
+
+        int readVarint() {
+            int value = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = readByte();
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        String readString() {
+            return readUtf8(readVarint());
+        }
+
+        String readUtf8(int length) {
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.nihonreader.app.utils;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.atilika.kuromoji.ipadic.Tokenizer;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Process-wide holder of the Kuromoji tokenizer.
+ *
+ * Building a Tokenizer loads the whole IPADIC dictionary, so the app keeps exactly one
+ * and starts loading it on a background thread when the process starts. Tokenizer is
+ * thread-safe, so the same instance is shared by every caller.
+ */
+public class TokenizerService {
+
+    private static final String TAG = "TokenizerService";
+
+    private static TokenizerService instance;
+
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    private final MutableLiveData<Boolean> ready = new MutableLiveData<>(false);
+    private volatile Tokenizer tokenizer;
+    private volatile Throwable loadFailure;
+    private boolean loadStarted;
+    private long loadTimeMs;
+    private long heapUsedBytes;
+
+    private TokenizerService() {
+    }
+
+    public static synchronized TokenizerService getInstance() {
+        if (instance == null) {
+            instance = new TokenizerService();
+        }
+        return instance;
+    }
+
+    /**
+     * Shortcut for {@code getInstance().getTokenizer()}
+     */
+    public static Tokenizer tokenizer() {
+        return getInstance().getTokenizer();
+    }
+
+    /**
+     * Start loading the tokenizer on a background thread, if it is not loading already
+     */
+    public synchronized void warmUp() {
+        if (loadStarted) {
+            return;
+        }
+        loadStarted = true;
+
+        Thread loader = new Thread(this::load, "tokenizer-warmup");
+        loader.setPriority(Thread.MIN_PRIORITY);
+        loader.start();
+    }
+
+    /**
+     * Get the shared tokenizer, waiting for it to finish loading if necessary.
+     * Avoid calling this from the main thread before {@link #isReady()}.
+     * @throws IllegalStateException If the dictionary could not be loaded
+     */
+    public Tokenizer getTokenizer() {
+        Tokenizer current = tokenizer;
+        if (current != null) {
+            return current;
+        }
+
+        warmUp();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                loaded.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (tokenizer == null) {
+            throw new IllegalStateException("Tokenizer failed to load", loadFailure);
+        }
+        return tokenizer;
+    }
+
+    /**
+     * Whether the tokenizer has finished loading
+     */
+    public boolean isReady() {
+        return tokenizer != null;
+    }
+
+    /**
+     * Emits true once the tokenizer has finished loading
+     */
+    public LiveData<Boolean> getReady() {
+        return ready;
+    }
+
+    /**
+     * Time it took to load the dictionary, in milliseconds, or 0 if not loaded yet
+     */
+    public long getLoadTimeMs() {
+        return loadTimeMs;
+    }
+
+    /**
+     * Approximate heap taken by the loaded dictionary, in bytes, or 0 if not loaded yet
+     */
+    public long getHeapUsedBytes() {
+        return heapUsedBytes;
+    }
+
+    private void load() {
+        Runtime runtime = Runtime.getRuntime();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        long startTime = SystemClock.elapsedRealtime();
+
+        try {
+            Tokenizer created = new Tokenizer();
+
+            loadTimeMs = SystemClock.elapsedRealtime() - startTime;
+            heapUsedBytes = Math.max(0, (runtime.totalMemory() - runtime.freeMemory()) - heapBefore);
+            Log.i(TAG, "Tokenizer loaded in " + loadTimeMs + " ms, using about "
+                    + (heapUsedBytes / (1024 * 1024)) + " MB of heap");
+
+            tokenizer = created;
+            ready.postValue(true);
+        } catch (RuntimeException | Error e) {
+            // Includes running out of memory or missing dictionary resources
+            Log.e(TAG, "Error loading tokenizer", e);
+            loadFailure = e;
+            ready.postValue(false);
+        } finally {
+            // Waiting callers are released either way; they get the failure instead
+            loaded.countDown();
+        }
+    }
+}
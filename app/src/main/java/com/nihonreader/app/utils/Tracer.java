@@ -0,0 +1,113 @@
+package com.nihonreader.app.utils;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.nihonreader.app.BuildConfig;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Debug tracing and counters, grouped into categories that can be switched on and off.
+ *
+ * Everything is gated on {@link #ENABLED}, a compile-time constant that is false in release
+ * builds. Call sites test it first, so in release builds javac drops the guarded code and
+ * its message building entirely:
+ * <pre>
+ *   long traceToken = Tracer.ENABLED ? Tracer.begin(Tracer.TEXT) : 0;
+ *   ...
+ *   if (Tracer.ENABLED &amp;&amp; Tracer.isEnabled(Tracer.TEXT)) {
+ *       Tracer.end(Tracer.TEXT, TAG, "Found " + count + " sentences", traceToken);
+ *   }
+ * </pre>
+ */
+public final class Tracer {
+
+    /**
+     * Whether tracing is compiled in; false in release builds
+     */
+    public static final boolean ENABLED = BuildConfig.TRACE_ENABLED;
+
+    public static final int TEXT = 1;
+    public static final int AUDIO = 1 << 1;
+    public static final int DICTIONARY = 1 << 2;
+    public static final int DATABASE = 1 << 3;
+    public static final int ALL = TEXT | AUDIO | DICTIONARY | DATABASE;
+
+    private static volatile int enabledCategories = ALL;
+    private static final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    private Tracer() {
+    }
+
+    /**
+     * Choose which categories are traced, e.g. {@code Tracer.TEXT | Tracer.AUDIO}
+     */
+    public static void setEnabledCategories(int categories) {
+        enabledCategories = categories;
+    }
+
+    /**
+     * Whether a category is traced; always false in release builds
+     */
+    public static boolean isEnabled(int category) {
+        return ENABLED && (enabledCategories & category) != 0;
+    }
+
+    public static void log(int category, String tag, String message) {
+        if (isEnabled(category)) {
+            Log.d(tag, message);
+        }
+    }
+
+    /**
+     * Start timing an operation
+     * @return A token to pass to {@link #end}, or 0 if the category is not traced
+     */
+    public static long begin(int category) {
+        return isEnabled(category) ? SystemClock.elapsedRealtimeNanos() : 0;
+    }
+
+    /**
+     * Log the time since {@link #begin} for an operation
+     */
+    public static void end(int category, String tag, String operation, long beginToken) {
+        if (isEnabled(category) && beginToken != 0) {
+            double elapsedMs = (SystemClock.elapsedRealtimeNanos() - beginToken) / 1e6;
+            Log.d(tag, String.format(Locale.US, "%s took %.2f ms", operation, elapsedMs));
+        }
+    }
+
+    /**
+     * Add to a named counter
+     */
+    public static void count(int category, String counter, long delta) {
+        if (!isEnabled(category)) {
+            return;
+        }
+        AtomicLong value = counters.get(counter);
+        if (value == null) {
+            AtomicLong created = new AtomicLong();
+            value = counters.putIfAbsent(counter, created);
+            if (value == null) {
+                value = created;
+            }
+        }
+        value.addAndGet(delta);
+    }
+
+    /**
+     * Snapshot of all counters, sorted by name; empty in release builds
+     */
+    public static Map<String, Long> getCounters() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        return snapshot;
+    }
+}
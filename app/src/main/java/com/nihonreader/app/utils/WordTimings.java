@@ -0,0 +1,266 @@
+package com.nihonreader.app.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+/**
+ * Per-word times of a segment, packed into a single int array so playback can find the
+ * word being spoken without any objects.
+ *
+ * Each word takes {@link #STRIDE} ints: its start and end in ms from the start of the
+ * segment, then the start and end of its characters in the segment text. Words are in
+ * time order, so the word at a moment is found by binary search.
+ *
+ * For storage the array is delta-encoded: word count, then for each word the gap from the
+ * previous word's start, its length, the gap from the previous word's last character and
+ * its character length. Gaps are zigzag varints since timings may overlap.
+ */
+public class WordTimings {
+
+    public static final int STRIDE = 4;
+    public static final int START = 0;
+    public static final int END = 1;
+    public static final int CHAR_START = 2;
+    public static final int CHAR_END = 3;
+
+    private WordTimings() {
+    }
+
+    /**
+     * Number of words in packed timings, which may be null
+     */
+    public static int count(int[] timings) {
+        return timings != null ? timings.length / STRIDE : 0;
+    }
+
+    /**
+     * Find the word being spoken at a moment. In a pause between words the word before
+     * it is returned, so a highlight does not flicker off and on.
+     * @param offsetMs Time from the start of the segment
+     * @return The index of the word, or -1 if the moment is before the first word or after the last
+     */
+    public static int find(int[] timings, long offsetMs) {
+        int count = count(timings);
+        int low = 0;
+        int high = count - 1;
+        int candidate = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (timings[mid * STRIDE + START] <= offsetMs) {
+                candidate = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (candidate >= 0 && (candidate < count - 1 || offsetMs < timings[candidate * STRIDE + END])) {
+            return candidate;
+        }
+        return -1;
+    }
+
+    /**
+     * The next moment after the given one at which {@link #find} gives another word
+     * @param offsetMs Time from the start of the segment
+     * @return The time from the start of the segment, or Long.MAX_VALUE if the words are over
+     */
+    public static long nextBoundary(int[] timings, long offsetMs) {
+        int count = count(timings);
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (timings[mid * STRIDE + START] <= offsetMs) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (low < count) {
+            return timings[low * STRIDE + START];
+        }
+        if (count > 0 && offsetMs < timings[(count - 1) * STRIDE + END]) {
+            return timings[(count - 1) * STRIDE + END];
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Pack word times read from a timing file, placing each word in the segment text
+     * after the previous one. Words that cannot be found in the text are dropped.
+     * @param times Absolute start and end of each word, interleaved
+     * @return The packed timings, or null if no word could be placed
+     */
+    public static int[] pack(String text, long segmentStart, List<String> words, long[] times, int count) {
+        if (text == null || count == 0) {
+            return null;
+        }
+
+        int[] packed = new int[count * STRIDE];
+        int placed = 0;
+        int from = 0;
+        for (int i = 0; i < count; i++) {
+            // Whisper puts the space before a word into the word
+            String word = words.get(i).trim();
+            int at = word.isEmpty() ? -1 : text.indexOf(word, from);
+            if (at < 0) {
+                continue;
+            }
+            int offset = placed * STRIDE;
+            packed[offset + START] = (int) Math.max(0, times[2 * i] - segmentStart);
+            packed[offset + END] = (int) Math.max(0, times[2 * i + 1] - segmentStart);
+            packed[offset + CHAR_START] = at;
+            packed[offset + CHAR_END] = at + word.length();
+            from = at + word.length();
+            placed++;
+        }
+
+        if (placed == 0) {
+            return null;
+        }
+        if (placed < count) {
+            int[] trimmed = new int[placed * STRIDE];
+            System.arraycopy(packed, 0, trimmed, 0, trimmed.length);
+            return trimmed;
+        }
+        return packed;
+    }
+
+    /**
+     * Move timings to a segment whose start and end were changed, keeping each word at the
+     * same moment of the audio. Words that fall outside the new segment are clamped to it.
+     * @return New packed timings, or null if there are none
+     */
+    public static int[] rebase(int[] timings, long oldStart, long newStart, long newEnd) {
+        int count = count(timings);
+        if (count == 0) {
+            return null;
+        }
+
+        long shift = oldStart - newStart;
+        long length = Math.max(0, newEnd - newStart);
+        int[] rebased = timings.clone();
+        for (int i = 0; i < count * STRIDE; i += STRIDE) {
+            rebased[i + START] = (int) Math.min(length, Math.max(0, timings[i + START] + shift));
+            rebased[i + END] = (int) Math.min(length, Math.max(0, timings[i + END] + shift));
+        }
+        return rebased;
+    }
+
+    /**
+     * Add the words of another segment's timings after these, as when segments are merged
+     * @param timings The timings so far, or null for none
+     * @param shiftMs Added to the times of the new words, e.g. the gap between the two starts
+     * @param charShift Added to the character positions of the new words
+     * @param lengthMs Length of the combined segment; the new words are clamped to it
+     * @return The combined timings, or null if there are none
+     */
+    public static int[] append(int[] timings, int[] more, long shiftMs, int charShift, long lengthMs) {
+        int count = count(timings);
+        int moreCount = count(more);
+        if (moreCount == 0) {
+            return timings;
+        }
+
+        int[] combined = new int[(count + moreCount) * STRIDE];
+        if (count > 0) {
+            System.arraycopy(timings, 0, combined, 0, count * STRIDE);
+        }
+        long length = Math.max(0, lengthMs);
+        for (int i = 0; i < moreCount * STRIDE; i += STRIDE) {
+            int offset = count * STRIDE + i;
+            combined[offset + START] = (int) Math.min(length, Math.max(0, more[i + START] + shiftMs));
+            combined[offset + END] = (int) Math.min(length, Math.max(0, more[i + END] + shiftMs));
+            combined[offset + CHAR_START] = more[i + CHAR_START] + charShift;
+            combined[offset + CHAR_END] = more[i + CHAR_END] + charShift;
+        }
+        return combined;
+    }
+
+    /**
+     * Encode packed timings for storage
+     * @return The encoded timings, or null if there are none
+     */
+    public static byte[] encode(int[] timings) {
+        int count = count(timings);
+        if (count == 0) {
+            return null;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(count * 6 + 2);
+        writeVarint(out, count);
+        int previousStart = 0;
+        int previousCharEnd = 0;
+        for (int i = 0; i < count * STRIDE; i += STRIDE) {
+            writeVarint(out, zigzag(timings[i + START] - previousStart));
+            writeVarint(out, zigzag(timings[i + END] - timings[i + START]));
+            writeVarint(out, zigzag(timings[i + CHAR_START] - previousCharEnd));
+            writeVarint(out, timings[i + CHAR_END] - timings[i + CHAR_START]);
+            previousStart = timings[i + START];
+            previousCharEnd = timings[i + CHAR_END];
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode stored timings
+     * @return The packed timings, or null if there are none or the data is corrupt
+     */
+    public static int[] decode(byte[] data) {
+        if (data == null || data.length == 0) {
+            return null;
+        }
+
+        try {
+            int[] position = {0};
+            int count = readVarint(data, position);
+            // Every word takes at least one byte per value
+            if (count < 0 || count > data.length / STRIDE) {
+                return null;
+            }
+            int[] timings = new int[count * STRIDE];
+            int previousStart = 0;
+            int previousCharEnd = 0;
+            for (int i = 0; i < timings.length; i += STRIDE) {
+                timings[i + START] = previousStart + unzigzag(readVarint(data, position));
+                timings[i + END] = timings[i + START] + unzigzag(readVarint(data, position));
+                timings[i + CHAR_START] = previousCharEnd + unzigzag(readVarint(data, position));
+                timings[i + CHAR_END] = timings[i + CHAR_START] + readVarint(data, position);
+                previousStart = timings[i + START];
+                previousCharEnd = timings[i + CHAR_END];
+            }
+            return timings;
+        } catch (RuntimeException e) {
+            // Truncated or corrupt data; the segment is highlighted as a whole
+            return null;
+        }
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(byte[] data, int[] position) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = data[position[0]++] & 0xFF;
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -9,18 +9,11 @@ import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 
 import com.nihonreader.app.repository.StoryRepository;
-import com.nihonreader.app.utils.JapaneseTextUtils;
 import com.nihonreader.app.utils.FileUtils;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.util.List;
 
 /**
  * ViewModel for the add story screen
@@ -45,6 +38,7 @@ public class AddStoryViewModel extends AndroidViewModel {
     private MutableLiveData<String> importResult = new MutableLiveData<>();
     private MutableLiveData<Boolean> useAiAlignment = new MutableLiveData<>(false);
     private MutableLiveData<String> importStatus = new MutableLiveData<>();
+    private StoryRepository.ImportHandle importHandle;
     
     public AddStoryViewModel(@NonNull Application application) {
         super(application);
@@ -147,51 +141,33 @@ public class AddStoryViewModel extends AndroidViewModel {
             return;
         }
 
-        // Split text into sentences using JapaneseTextUtils
-        List<String> sentences = JapaneseTextUtils.splitIntoSentences(textContent);
-
-        // Create a temporary file for the timestamps
-        File tempFile = null;
-        try {
-            tempFile = File.createTempFile("timestamps_", ".txt", getApplication().getCacheDir());
-            FileOutputStream fos = new FileOutputStream(tempFile);
-            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(fos));
-
-            // Write timestamps in the LRC format expected by AudioUtils.parseTimingFile
-            // Format: [MM:SS.CC] Text
-            long currentTime = 0;
-            for (String sentence : sentences) {
-                // Assume each sentence takes about 3 seconds to read
-                int minutes = (int) (currentTime / 60000);
-                int seconds = (int) ((currentTime % 60000) / 1000);
-                int centis = (int) ((currentTime % 1000) / 10);
-                
-                // Format: [MM:SS.CC] Text
-                writer.write(String.format("[%02d:%02d.%02d] %s\n", minutes, seconds, centis, sentence));
-                
-                // Increment current time for next sentence
-                currentTime += 3000;
-            }
-            writer.close();
-
-            // Create a Uri from the temporary file
-            Uri timingUri = Uri.fromFile(tempFile);
-
-            // Call repository to import the story
-            repository.importCustomStory(
-                title.getValue(),
-                author.getValue(),
-                description.getValue(),
-                textFileUri.getValue(),
-                audioFileUri.getValue(),
-                timingUri,
-                useAiAlignment.getValue(),
-                folderId,
-                callback
-            );
-        } catch (IOException e) {
-            callback.onError("Failed to create timestamp file: " + e.getMessage());
-            return;
+        String title = this.title.getValue();
+        String author = this.author.getValue();
+        String description = this.description.getValue();
+        Uri textUri = textFileUri.getValue();
+        Uri audioUri = audioFileUri.getValue();
+        boolean useAi = useAiAlignment.getValue();
+        
+        // Without a timing file the import fits the sentences to the audio itself
+        importHandle = repository.importCustomStory(
+            title,
+            author,
+            description,
+            textUri,
+            audioUri,
+            null,
+            useAi,
+            folderId,
+            callback
+        );
+    }
+    
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        // Leaving the import screen abandons an import that is still running
+        if (importHandle != null) {
+            importHandle.cancel();
         }
     }
     
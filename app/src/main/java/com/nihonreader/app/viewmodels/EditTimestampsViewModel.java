@@ -1,6 +1,7 @@
 package com.nihonreader.app.viewmodels;
 
 import android.app.Application;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
@@ -10,16 +11,29 @@ import androidx.lifecycle.MutableLiveData;
 import com.nihonreader.app.models.Story;
 import com.nihonreader.app.models.StoryContent;
 import com.nihonreader.app.repository.StoryRepository;
+import com.nihonreader.app.utils.PeakIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 /**
  * ViewModel for EditTimestampsActivity
  */
 public class EditTimestampsViewModel extends AndroidViewModel {
     
+    private static final String TAG = "EditTimestampsViewModel";
+    
+    // Peak files of stories imported before they existed are generated here, off the main thread
+    private static final Executor peakExecutor = Executors.newSingleThreadExecutor();
+    
     private StoryRepository repository;
     private LiveData<Story> story;
     private LiveData<StoryContent> storyContent;
     private MutableLiveData<Boolean> isSaving = new MutableLiveData<>(false);
+    private MutableLiveData<PeakIndex> peakIndex = new MutableLiveData<>();
+    private String peakAudioPath;
     
     public EditTimestampsViewModel(@NonNull Application application) {
         super(application);
@@ -39,6 +53,33 @@ public class EditTimestampsViewModel extends AndroidViewModel {
         return storyContent;
     }
     
+    public LiveData<PeakIndex> getPeakIndex() {
+        return peakIndex;
+    }
+    
+    /**
+     * Map the waveform peaks of an audio file, generating them first if the story has none
+     */
+    public void loadPeaks(String audioPath) {
+        if (audioPath == null || audioPath.equals(peakAudioPath)) {
+            return;
+        }
+        peakAudioPath = audioPath;
+        
+        peakExecutor.execute(() -> {
+            File audioFile = new File(audioPath);
+            File peakFile = PeakIndex.fileFor(audioFile);
+            try {
+                if (!peakFile.exists()) {
+                    PeakIndex.generate(getApplication(), audioFile);
+                }
+                peakIndex.postValue(PeakIndex.open(peakFile));
+            } catch (IOException e) {
+                Log.w(TAG, "Error loading waveform peaks", e);
+            }
+        });
+    }
+    
     public LiveData<Boolean> getIsSaving() {
         return isSaving;
     }
@@ -7,11 +7,13 @@ import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 
-import com.nihonreader.app.models.AudioSegment;
 import com.nihonreader.app.models.Story;
 import com.nihonreader.app.models.StoryContent;
 import com.nihonreader.app.models.UserProgress;
+import com.nihonreader.app.repository.AudioProgressWriter;
+import com.nihonreader.app.repository.SegmentPager;
 import com.nihonreader.app.repository.StoryRepository;
+import com.nihonreader.app.utils.SegmentTimeline;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -27,6 +29,8 @@ public class StoryReaderViewModel extends AndroidViewModel {
     private LiveData<StoryContent> storyContent;
     private LiveData<UserProgress> userProgress;
     private String storyId;
+    private AudioProgressWriter audioProgressWriter;
+    private SegmentPager segmentPager;
     
     private MutableLiveData<Integer> currentSegmentIndex = new MutableLiveData<>(-1);
     private MutableLiveData<Boolean> isPlaying = new MutableLiveData<>(false);
@@ -36,11 +40,26 @@ public class StoryReaderViewModel extends AndroidViewModel {
         repository = new StoryRepository(application);
     }
     
+    /**
+     * Load a story for reading. Called again after a configuration change, when the story
+     * is already loaded and nothing is done.
+     */
     public void loadStory(String storyId) {
+        if (storyId.equals(this.storyId)) {
+            return;
+        }
+        releaseStory();
+        
         this.storyId = storyId;
         story = repository.getStoryById(storyId);
-        storyContent = repository.getContentForStory(storyId);
+        // Segments are paged in by the reader rather than loaded with the content
+        storyContent = repository.getContentWithoutSegments(storyId);
         userProgress = repository.getProgressForStory(storyId);
+        segmentPager = repository.createSegmentPager(storyId);
+        audioProgressWriter = repository.createAudioProgressWriter(storyId);
+        
+        // Backfill tokens for stories imported before they were persisted
+        repository.ensureSegmentTokens(storyId);
         
         // Update last opened timestamp
         String timestamp = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US)
@@ -60,12 +79,54 @@ public class StoryReaderViewModel extends AndroidViewModel {
         return userProgress;
     }
     
+    public SegmentPager getSegmentPager() {
+        return segmentPager;
+    }
+    
+    /**
+     * Times of all segments, reloaded whenever the story's segments change
+     */
+    public LiveData<SegmentTimeline> getSegmentTimeline() {
+        return segmentPager.getTimeline();
+    }
+    
     public void updateUserProgress(UserProgress progress) {
         repository.update(progress);
     }
     
+    /**
+     * Record the playback position; writes are batched, see {@link #flushAudioPosition()}
+     */
     public void updateAudioPosition(long position) {
-        repository.updateAudioPosition(storyId, position);
+        if (audioProgressWriter != null) {
+            audioProgressWriter.update(position);
+        }
+    }
+    
+    /**
+     * Persist the latest playback position right away
+     */
+    public void flushAudioPosition() {
+        if (audioProgressWriter != null) {
+            audioProgressWriter.flush();
+        }
+    }
+    
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        releaseStory();
+    }
+    
+    /**
+     * Save the position and stop watching the segments of the story loaded so far
+     */
+    private void releaseStory() {
+        flushAudioPosition();
+        if (segmentPager != null) {
+            segmentPager.close();
+            segmentPager = null;
+        }
     }
     
     public LiveData<Integer> getCurrentSegmentIndex() {
@@ -84,18 +145,16 @@ public class StoryReaderViewModel extends AndroidViewModel {
         isPlaying.setValue(playing);
     }
     
-    public int findCurrentSegment(StoryContent content, long currentTime) {
-        if (content == null || content.getSegments() == null || content.getSegments().isEmpty()) {
+    /**
+     * Find the segment playing at the given time
+     * @return The segment index, or -1 if the times are not loaded or no segment covers the time
+     */
+    public int findCurrentSegment(long currentTime) {
+        SegmentTimeline timeline = segmentPager != null ? segmentPager.getTimeline().getValue() : null;
+        if (timeline == null) {
             return -1;
         }
         
-        for (int i = 0; i < content.getSegments().size(); i++) {
-            AudioSegment segment = content.getSegments().get(i);
-            if (currentTime >= segment.getStart() && currentTime < segment.getEnd()) {
-                return i;
-            }
-        }
-        
-        return -1;
+        return timeline.findSegment(currentTime);
     }
 }
\ No newline at end of file
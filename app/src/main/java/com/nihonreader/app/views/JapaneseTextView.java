@@ -2,11 +2,14 @@ package com.nihonreader.app.views;
 
 import android.content.Context;
 import android.graphics.Color;
-import android.text.SpannableString;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Spannable;
 import android.text.SpannableStringBuilder;
 import android.text.Spanned;
 import android.text.TextPaint;
 import android.text.method.LinkMovementMethod;
+import android.text.style.BackgroundColorSpan;
 import android.text.style.ForegroundColorSpan;
 import android.text.style.UnderlineSpan;
 import android.text.style.ClickableSpan;
@@ -18,16 +21,23 @@ import androidx.annotation.Nullable;
 import androidx.appcompat.widget.AppCompatTextView;
 
 import com.nihonreader.app.models.JapaneseWord;
-import com.nihonreader.app.utils.JapaneseTextParser;
+import com.nihonreader.app.utils.BulkTokenizer;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Custom TextView that supports Japanese word parsing and click handling with highlighting
  */
 public class JapaneseTextView extends AppCompatTextView {
     
+    // Background thread for tokenizing and building spans off the UI thread
+    private static final ExecutorService spanExecutor = Executors.newSingleThreadExecutor();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    
     private String originalText;
     private List<JapaneseWord> parsedWords = new ArrayList<>();
     private OnWordClickListener onWordClickListener;
@@ -35,14 +45,70 @@ public class JapaneseTextView extends AppCompatTextView {
     private JapaneseWord highlightedWord;
     private ForegroundColorSpan currentColorSpan;
     private UnderlineSpan currentUnderlineSpan;
+    private Future<?> pendingText;
+    private int textGeneration;
     
     // Colors for highlighting
     private int highlightColor;
     
+    // Marks the word being spoken; the one span is moved from word to word
+    private BackgroundColorSpan playingSpan;
+    private int playingStart = -1;
+    private int playingEnd = -1;
+    
     public interface OnWordClickListener {
         void onWordClicked(JapaneseWord word);
     }
     
+    /**
+     * Tokenized text with its clickable spans, ready to be shown by any JapaneseTextView.
+     * Instances are immutable once built and can be shared between views.
+     */
+    public static class PreparedText {
+        private final String text;
+        private final List<JapaneseWord> words;
+        private final Spanned spanned;
+        
+        private PreparedText(String text, List<JapaneseWord> words, Spanned spanned) {
+            this.text = text;
+            this.words = words;
+            this.spanned = spanned;
+        }
+        
+        public String getText() {
+            return text;
+        }
+        
+        public List<JapaneseWord> getWords() {
+            return words;
+        }
+    }
+    
+    /**
+     * Clickable span that routes clicks back to the view that displays it,
+     * so prepared spans do not hold on to a particular view
+     */
+    private static class WordSpan extends ClickableSpan {
+        private final JapaneseWord word;
+        
+        WordSpan(JapaneseWord word) {
+            this.word = word;
+        }
+        
+        @Override
+        public void onClick(@NonNull View widget) {
+            if (widget instanceof JapaneseTextView) {
+                ((JapaneseTextView) widget).onWordSpanClicked(word);
+            }
+        }
+        
+        @Override
+        public void updateDrawState(@NonNull TextPaint ds) {
+            // Don't show the default underline
+            ds.setUnderlineText(false);
+        }
+    }
+    
     public JapaneseTextView(@NonNull Context context) {
         super(context);
         init();
@@ -63,6 +129,8 @@ public class JapaneseTextView extends AppCompatTextView {
         setMovementMethod(LinkMovementMethod.getInstance());
         // Get highlight color from resources
         highlightColor = getContext().getResources().getColor(com.nihonreader.app.R.color.wordHighlightBlue);
+        playingSpan = new BackgroundColorSpan(
+                getContext().getResources().getColor(com.nihonreader.app.R.color.wordHighlight));
     }
     
     public void setOnWordClickListener(OnWordClickListener listener) {
@@ -73,59 +141,140 @@ public class JapaneseTextView extends AppCompatTextView {
      * Set the Japanese text and parse it into clickable words
      */
     public void setJapaneseText(String text) {
-        this.originalText = text;
+        setPreparedText(prepare(text, null));
+    }
+    
+    /**
+     * Set Japanese text that has already been tokenized, skipping Kuromoji entirely
+     */
+    public void setJapaneseText(String text, List<JapaneseWord> words) {
+        setPreparedText(prepare(text, words));
+    }
+    
+    /**
+     * Show the text as plain text right away, then tokenize it (unless words are given)
+     * and build its spans on a background thread. The spans are swapped in when ready,
+     * unless another text has been set or {@link #cancelPendingText()} was called meanwhile.
+     */
+    public void setJapaneseTextAsync(String text, @Nullable List<JapaneseWord> words) {
+        cancelPendingText();
         
-        // Parse the text using Kuromoji
-        this.parsedWords = JapaneseTextParser.parseText(text);
+        final int generation = textGeneration;
+        this.originalText = text;
+        this.parsedWords = new ArrayList<>();
+        this.spannableBuilder = null;
+        this.highlightedWord = null;
+        setText(text);
+        applyPlayingRange();
         
-        // Apply clickable spans to the text
-        applyClickableSpans();
+        pendingText = prepareAsync(text, words, prepared -> {
+            if (generation == textGeneration) {
+                pendingText = null;
+                setPreparedText(prepared);
+            }
+        });
     }
     
-    private void applyClickableSpans() {
-        if (originalText == null || originalText.isEmpty() || parsedWords.isEmpty()) {
+    /**
+     * Show text that was prepared in advance
+     */
+    public void setPreparedText(PreparedText prepared) {
+        cancelPendingText();
+        
+        this.originalText = prepared.text;
+        this.parsedWords = prepared.words;
+        this.highlightedWord = null;
+        this.currentColorSpan = null;
+        this.currentUnderlineSpan = null;
+        
+        if (prepared.spanned == null) {
+            spannableBuilder = null;
             setText("");
             return;
         }
         
-        spannableBuilder = new SpannableStringBuilder(originalText);
+        // Copy the spans so highlighting never touches the shared prepared text
+        spannableBuilder = new SpannableStringBuilder(prepared.spanned);
+        setText(spannableBuilder);
+        applyPlayingRange();
+    }
+    
+    /**
+     * Drop any background span building still in flight for this view,
+     * e.g. when its ViewHolder is recycled
+     */
+    public void cancelPendingText() {
+        textGeneration++;
+        if (pendingText != null) {
+            pendingText.cancel(true);
+            pendingText = null;
+        }
+    }
+    
+    /**
+     * Callback for text prepared on the background thread, delivered on the main thread
+     */
+    public interface OnTextPreparedListener {
+        void onTextPrepared(PreparedText prepared);
+    }
+    
+    /**
+     * Tokenize (unless words are given) and build spans on the background thread
+     * @return The pending work, which can be cancelled
+     */
+    public static Future<?> prepareAsync(String text, @Nullable List<JapaneseWord> words,
+                                         OnTextPreparedListener listener) {
+        return spanExecutor.submit(() -> {
+            PreparedText prepared = prepare(text, words);
+            if (!Thread.currentThread().isInterrupted()) {
+                mainHandler.post(() -> listener.onTextPrepared(prepared));
+            }
+        });
+    }
+    
+    /**
+     * Tokenize (unless words are given) and build the clickable spans for a text.
+     * Safe to call from any thread.
+     */
+    public static PreparedText prepare(String text, @Nullable List<JapaneseWord> words) {
+        if (words == null) {
+            // Parse the text using Kuromoji, in parallel chunks if it is long
+            words = BulkTokenizer.tokenize(text);
+        }
+        
+        if (text == null || text.isEmpty() || words.isEmpty()) {
+            return new PreparedText(text, words, null);
+        }
         
-        for (JapaneseWord word : parsedWords) {
+        SpannableStringBuilder builder = new SpannableStringBuilder(text);
+        for (JapaneseWord word : words) {
             if (word.isClickable()) {
-                final JapaneseWord clickedWord = word;
-                
-                ClickableSpan clickableSpan = new ClickableSpan() {
-                    @Override
-                    public void onClick(@NonNull View widget) {
-                        highlightWord(clickedWord);
-                        if (onWordClickListener != null) {
-                            onWordClickListener.onWordClicked(clickedWord);
-                        }
-                    }
-                    
-                    @Override
-                    public void updateDrawState(@NonNull TextPaint ds) {
-                        // Don't show the default underline
-                        ds.setUnderlineText(false);
-                    }
-                };
-                
-                spannableBuilder.setSpan(
-                        clickableSpan,
+                builder.setSpan(
+                        new WordSpan(word),
                         word.getStartIndex(),
                         word.getEndIndex(),
                         Spanned.SPAN_EXCLUSIVE_EXCLUSIVE
                 );
             }
         }
-        
-        setText(spannableBuilder);
+        return new PreparedText(text, words, builder);
+    }
+    
+    private void onWordSpanClicked(JapaneseWord word) {
+        highlightWord(word);
+        if (onWordClickListener != null) {
+            onWordClickListener.onWordClicked(word);
+        }
     }
     
     /**
      * Highlight a word by applying a light blue color and underline (SatoriReader style)
      */
     public void highlightWord(JapaneseWord word) {
+        if (spannableBuilder == null) {
+            return;
+        }
+        
         // Remove previous highlight if any
         removeHighlight();
         
@@ -149,6 +298,7 @@ public class JapaneseTextView extends AppCompatTextView {
         );
         
         setText(spannableBuilder);
+        applyPlayingRange();
     }
     
     /**
@@ -163,12 +313,41 @@ public class JapaneseTextView extends AppCompatTextView {
                 spannableBuilder.removeSpan(currentUnderlineSpan);
             }
             setText(spannableBuilder);
+            applyPlayingRange();
             highlightedWord = null;
             currentColorSpan = null;
             currentUnderlineSpan = null;
         }
     }
     
+    /**
+     * Mark the characters of the word being spoken, or clear the mark with -1.
+     * The mark is a single span moved within the shown text, so nothing is allocated.
+     */
+    public void setPlayingRange(int start, int end) {
+        if (start == playingStart && end == playingEnd) {
+            return;
+        }
+        playingStart = start;
+        playingEnd = end;
+        applyPlayingRange();
+    }
+    
+    private void applyPlayingRange() {
+        // The text is always spannable since a movement method is set
+        CharSequence text = getText();
+        if (!(text instanceof Spannable)) {
+            return;
+        }
+        
+        Spannable spannable = (Spannable) text;
+        if (playingStart < 0 || playingStart >= playingEnd || playingEnd > spannable.length()) {
+            spannable.removeSpan(playingSpan);
+        } else {
+            spannable.setSpan(playingSpan, playingStart, playingEnd, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+    }
+    
     /**
      * Get the list of parsed words
      */
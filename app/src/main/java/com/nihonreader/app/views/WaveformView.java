@@ -0,0 +1,220 @@
+package com.nihonreader.app.views;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+
+import com.nihonreader.app.R;
+import com.nihonreader.app.models.AudioSegment;
+import com.nihonreader.app.utils.PeakIndex;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Scrolling waveform of a story's audio, drawn from its {@link PeakIndex}.
+ *
+ * The playback position stays in the middle of the view with the waveform moving past it.
+ * Segment starts are marked with lines. Tapping seeks to the tapped moment, dragging
+ * scrubs, and pinching zooms in and out.
+ */
+public class WaveformView extends View {
+
+    private static final long MIN_VISIBLE_MS = 2000;
+    private static final long MAX_VISIBLE_MS = 10 * 60 * 1000;
+    private static final long DEFAULT_VISIBLE_MS = 20000;
+
+    public interface OnSeekListener {
+        void onSeek(long positionMs);
+    }
+
+    private final Paint wavePaint = new Paint();
+    private final Paint playheadPaint = new Paint();
+    private final Paint boundaryPaint = new Paint();
+    private final ScaleGestureDetector scaleDetector;
+    private final GestureDetector gestureDetector;
+
+    private PeakIndex peaks;
+    private long positionMs;
+    private long visibleMs = DEFAULT_VISIBLE_MS;
+    private long[] boundaries = new long[0];
+    // Line coordinates for one column per pixel, reused between frames
+    private float[] lines = new float[0];
+    private OnSeekListener onSeekListener;
+
+    public WaveformView(Context context) {
+        this(context, null);
+    }
+
+    public WaveformView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+
+        wavePaint.setColor(ContextCompat.getColor(context, R.color.wordHighlightBlue));
+        wavePaint.setStrokeWidth(1f);
+        playheadPaint.setColor(ContextCompat.getColor(context, R.color.white));
+        playheadPaint.setStrokeWidth(2f);
+        boundaryPaint.setColor(ContextCompat.getColor(context, R.color.wordHighlight));
+        boundaryPaint.setStrokeWidth(1f);
+
+        scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(@NonNull ScaleGestureDetector detector) {
+                long zoomed = (long) (visibleMs / detector.getScaleFactor());
+                visibleMs = Math.max(MIN_VISIBLE_MS, Math.min(MAX_VISIBLE_MS, zoomed));
+                invalidate();
+                return true;
+            }
+        });
+        gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(@NonNull MotionEvent e) {
+                return true;
+            }
+
+            @Override
+            public boolean onSingleTapUp(@NonNull MotionEvent e) {
+                seekTo(timeAtX(e.getX()));
+                performClick();
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(@Nullable MotionEvent e1, @NonNull MotionEvent e2,
+                                    float distanceX, float distanceY) {
+                // Dragging moves the waveform under the playhead
+                seekTo(positionMs + (long) (distanceX * getMsPerPixel()));
+                return true;
+            }
+        });
+    }
+
+    public void setPeaks(PeakIndex peaks) {
+        this.peaks = peaks;
+        invalidate();
+    }
+
+    public void setOnSeekListener(OnSeekListener listener) {
+        this.onSeekListener = listener;
+    }
+
+    /**
+     * Move the playhead; only redraws if the position changed
+     */
+    public void setPosition(long positionMs) {
+        if (positionMs != this.positionMs) {
+            this.positionMs = positionMs;
+            invalidate();
+        }
+    }
+
+    /**
+     * Mark the start of each segment
+     */
+    public void setSegments(List<AudioSegment> segments) {
+        long[] starts = new long[segments.size()];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = segments.get(i).getStart();
+        }
+        Arrays.sort(starts);
+        boundaries = starts;
+        invalidate();
+    }
+
+    private void seekTo(long timeMs) {
+        long duration = peaks != null ? peaks.getDurationMs() : Long.MAX_VALUE;
+        setPosition(Math.max(0, Math.min(duration, timeMs)));
+        if (onSeekListener != null) {
+            onSeekListener.onSeek(this.positionMs);
+        }
+    }
+
+    private double getMsPerPixel() {
+        return (double) visibleMs / Math.max(1, getWidth());
+    }
+
+    private long timeAtX(float x) {
+        return positionMs + (long) ((x - getWidth() / 2f) * getMsPerPixel());
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        scaleDetector.onTouchEvent(event);
+        if (!scaleDetector.isInProgress()) {
+            gestureDetector.onTouchEvent(event);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean performClick() {
+        return super.performClick();
+    }
+
+    @Override
+    protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+        super.onSizeChanged(width, height, oldWidth, oldHeight);
+        lines = new float[width * 4];
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        int width = getWidth();
+        float height = getHeight();
+        float centerY = height / 2f;
+        double msPerPixel = getMsPerPixel();
+        long startMs = positionMs - visibleMs / 2;
+
+        if (peaks != null && peaks.size() > 0) {
+            int peakCount = peaks.size();
+            int lineCount = 0;
+            for (int x = 0; x < width; x++) {
+                long fromMs = startMs + (long) (x * msPerPixel);
+                long toMs = startMs + (long) ((x + 1) * msPerPixel);
+                if (toMs < 0) {
+                    continue;
+                }
+                int from = (int) Math.max(0, fromMs / PeakIndex.PEAK_MS);
+                if (from >= peakCount) {
+                    break;
+                }
+                int to = (int) Math.min(peakCount, Math.max(from + 1, toMs / PeakIndex.PEAK_MS));
+
+                int min = Integer.MAX_VALUE;
+                int max = Integer.MIN_VALUE;
+                for (int i = from; i < to; i++) {
+                    min = Math.min(min, peaks.getMin(i));
+                    max = Math.max(max, peaks.getMax(i));
+                }
+                float maxY = centerY - max / 128f * centerY;
+                float minY = centerY - min / 128f * centerY;
+                lines[lineCount++] = x;
+                lines[lineCount++] = maxY;
+                lines[lineCount++] = x;
+                // Keep silent columns visible as a single pixel
+                lines[lineCount++] = Math.max(minY, maxY + 1);
+            }
+            canvas.drawLines(lines, 0, lineCount, wavePaint);
+        }
+
+        int first = Arrays.binarySearch(boundaries, startMs);
+        for (int i = first >= 0 ? first : -first - 1; i < boundaries.length; i++) {
+            float x = (float) ((boundaries[i] - startMs) / msPerPixel);
+            if (x > width) {
+                break;
+            }
+            canvas.drawLine(x, 0, x, height, boundaryPaint);
+        }
+
+        canvas.drawLine(width / 2f, 0, width / 2f, height, playheadPaint);
+    }
+}